@@ -0,0 +1,82 @@
+package garbagemule.FastFood.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import garbagemule.FastFood.FoodHealth;
+import garbagemule.FastFood.util.Files;
+import garbagemule.util.syml.SymlConfig;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lookups in the food table, for an edible item, an item that isn't food,
+ * and the enchanted golden apple variant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FoodHealthBenchmark
+{
+    private FoodHealth health;
+    
+    // Non-final, so the JIT can't fold the lookups
+    private int bread = 297;
+    private int stone = 1;
+    private int goldenApple = 322;
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        Stubs.installServer();
+        health = new FoodHealth(foodHealthConfig());
+    }
+    
+    /**
+     * The foodhealth.yml that ships with the plugin, extracted from the
+     * resources like the plugin does on first start.
+     */
+    static SymlConfig foodHealthConfig() throws IOException
+    {
+        File dir = java.nio.file.Files.createTempDirectory("fastfood-bench").toFile();
+        dir.deleteOnExit();
+        
+        File file = Files.extract("foodhealth.yml", dir);
+        if (file == null)
+            throw new IOException("No res/foodhealth.yml on the classpath.");
+        file.deleteOnExit();
+        
+        SymlConfig config = new SymlConfig(file);
+        if (!config.load())
+            throw new IOException("Could not read " + file);
+        return config;
+    }
+    
+    @Benchmark
+    public int getHealthFood()
+    {
+        return health.getHealth(bread);
+    }
+    
+    @Benchmark
+    public int getHealthNonFood()
+    {
+        return health.getHealth(stone);
+    }
+    
+    @Benchmark
+    public int getHealthVariant()
+    {
+        return health.getHealth(goldenApple, 1);
+    }
+    
+    @Benchmark
+    public boolean isEdibleNonFood()
+    {
+        return health.isEdible(stone);
+    }
+}
@@ -0,0 +1,126 @@
+package garbagemule.FastFood.bench;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import garbagemule.FastFood.FastFood;
+import garbagemule.FastFood.FoodHealth;
+import garbagemule.FastFood.listeners.FFEntityListener;
+import garbagemule.FastFood.listeners.FFPermissionCache;
+import garbagemule.FastFood.listeners.FFPlayerListener;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event.Result;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+import org.bukkit.event.entity.EntityRegainHealthEvent;
+import org.bukkit.event.entity.EntityRegainHealthEvent.RegainReason;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The event handlers, called directly with stub players and reused events.
+ * <p>Run with the gc profiler (-prof gc) to see the allocation rate per
+ * interaction alongside the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark
+{
+    private FFPlayerListener playerListener;
+    private FFEntityListener entityListener;
+    
+    private PlayerInteractEvent eatFood;
+    private PlayerInteractEvent placeBlock;
+    private PlayerInteractEvent leftClick;
+    private EntityDamageEvent starve;
+    private EntityRegainHealthEvent regain;
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        Stubs.installServer();
+        
+        // Half a health bar, so there is always room to eat
+        Map<String,Object> answers = new HashMap<String,Object>();
+        answers.put("getName", "bench");
+        answers.put("hasPermission", false);
+        answers.put("getHealth", 10);
+        answers.put("getFoodLevel", 10);
+        answers.put("getInventory", Stubs.stub(PlayerInventory.class, new HashMap<String,Object>()));
+        Player player = Stubs.stub(Player.class, answers);
+        
+        // The instanteat check is the only one that has to pass
+        Map<String,Object> eater = new HashMap<String,Object>(answers);
+        eater.put("getName", "eater");
+        eater.put("hasPermission", true);
+        Player eatingPlayer = Stubs.stub(Player.class, eater);
+        
+        FastFood plugin = new FastFood();
+        FoodHealth health = new FoodHealth(FoodHealthBenchmark.foodHealthConfig());
+        FFPermissionCache permissions = new FFPermissionCache(plugin);
+        permissions.refresh(player);
+        permissions.refresh(eatingPlayer);
+        
+        playerListener = new FFPlayerListener(plugin, health, permissions);
+        entityListener = new FFEntityListener(plugin, permissions);
+        
+        Block block = Stubs.stub(Block.class, new HashMap<String,Object>());
+        eatFood    = new PlayerInteractEvent(eatingPlayer, Action.RIGHT_CLICK_AIR, new ItemStack(Material.BREAD, 64), null, null);
+        placeBlock = new PlayerInteractEvent(eatingPlayer, Action.RIGHT_CLICK_BLOCK, new ItemStack(Material.STONE, 64), block, BlockFace.UP);
+        leftClick  = new PlayerInteractEvent(eatingPlayer, Action.LEFT_CLICK_AIR, new ItemStack(Material.BREAD, 64), null, null);
+        starve     = new EntityDamageEvent(player, DamageCause.STARVATION, 1);
+        regain     = new EntityRegainHealthEvent(player, 1, RegainReason.SATIATED);
+    }
+    
+    /**
+     * The full path: lookup, permission, health and inventory update.
+     * The listener denies the item use, so undo that for the next call.
+     */
+    @Benchmark
+    public void interactEatFood()
+    {
+        eatFood.setUseItemInHand(Result.DEFAULT);
+        playerListener.onPlayerInteract(eatFood);
+    }
+    
+    @Benchmark
+    public void interactNonFood()
+    {
+        playerListener.onPlayerInteract(placeBlock);
+    }
+    
+    @Benchmark
+    public void interactLeftClick()
+    {
+        playerListener.onPlayerInteract(leftClick);
+    }
+    
+    @Benchmark
+    public boolean entityDamageStarvation()
+    {
+        starve.setCancelled(false);
+        entityListener.onEntityDamage(starve);
+        return starve.isCancelled();
+    }
+    
+    @Benchmark
+    public boolean entityRegainSatiated()
+    {
+        regain.setCancelled(false);
+        entityListener.onEntityRegainHealth(regain);
+        return regain.isCancelled();
+    }
+}
@@ -0,0 +1,78 @@
+package garbagemule.FastFood.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * Minimal stand-ins for the Bukkit interfaces the plugin touches.
+ * <p>Stubs answer the methods they are given, and return null, false or
+ * zero for everything else, so the listeners can be driven without a
+ * running server.
+ */
+public class Stubs
+{
+    /**
+     * Create a stub of the given interface.
+     * @param type The interface to stub
+     * @param answers Return values by method name
+     * @return A stub implementing the interface
+     */
+    public static <T> T stub(Class<T> type, final Map<String,Object> answers)
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                if (answers.containsKey(name))
+                    return answers.get(name);
+                if (name.equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                if (name.equals("equals"))
+                    return proxy == args[0];
+                return defaultValue(method.getReturnType());
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+    
+    /**
+     * Install a stub Server, if there isn't one already. Plugin managers
+     * and schedulers accept everything and do nothing.
+     */
+    public static synchronized void installServer()
+    {
+        if (Bukkit.getServer() != null)
+            return;
+        
+        Map<String,Object> answers = new HashMap<String,Object>();
+        answers.put("getLogger", Logger.getLogger("Stubs"));
+        answers.put("getPluginManager", stub(PluginManager.class, new HashMap<String,Object>()));
+        answers.put("getScheduler", stub(BukkitScheduler.class, new HashMap<String,Object>()));
+        answers.put("getOnlinePlayers", new Player[0]);
+        Bukkit.setServer(stub(Server.class, answers));
+    }
+    
+    private static Object defaultValue(Class<?> c)
+    {
+        if (!c.isPrimitive() || c == void.class) return null;
+        if (c == boolean.class) return false;
+        if (c == char.class)    return (char) 0;
+        if (c == byte.class)    return (byte) 0;
+        if (c == short.class)   return (short) 0;
+        if (c == int.class)     return 0;
+        if (c == long.class)    return 0L;
+        if (c == float.class)   return 0F;
+        return 0D;
+    }
+}
@@ -0,0 +1,163 @@
+package garbagemule.util.syml.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import garbagemule.util.syml.SymlConfig;
+import garbagemule.util.syml.SymlEmitter;
+import garbagemule.util.syml.SymlNode;
+import garbagemule.util.syml.parser.SymlLexer;
+import garbagemule.util.syml.parser.SymlParser;
+import garbagemule.util.syml.parser.token.TokenStream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Each stage of the SYML pipeline on its own, on synthetic documents.
+ * <p>Besides ops/s, the "megabytes" and "lines" counters report the
+ * throughput in MB/s and lines/s. Run with -prof gc and divide the
+ * allocation rate by the lines/s to get the bytes allocated per line.
+ * 
+ * @author garbagemule
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymlBenchmark {
+    @Param({"2"})
+    public int depth;
+    
+    @Param({"16"})
+    public int width;
+    
+    @Param({"4"})
+    public int listLength;
+    
+    @Param({"20"})
+    public int commentDensity;
+    
+    private String text;
+    private int lines;
+    private double megabytes;
+    private File file;
+    private SymlConfig config;
+    private SymlNode leaf;
+    private int saves;
+    
+    /**
+     * Throughput counters, reset by JMH for every iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public double megabytes;
+        public long lines;
+    }
+    
+    /**
+     * A filled token stream for parse(), and only for parse().
+     * <p>The parser consumes its token stream, so it needs a fresh one for
+     * each call. The stream is filled up front, so that parse() doesn't
+     * include the lexing. Keeping it in its own state means the other
+     * benchmarks don't pay for the lexing, or see its allocations.
+     */
+    @State(Scope.Thread)
+    public static class Tokens {
+        public TokenStream stream;
+        
+        @Setup(Level.Invocation)
+        public void lex(SymlBenchmark bench) {
+            stream = new SymlLexer().lex(bench.text).fill();
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SymlGenerator generator = new SymlGenerator(depth, width, listLength, commentDensity);
+        text = generator.generate();
+        lines = generator.getLines();
+        
+        byte[] bytes = text.getBytes("UTF-8");
+        megabytes = bytes.length / (1024D * 1024D);
+        
+        file = File.createTempFile("syml-bench", ".yml");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(bytes);
+        fos.close();
+        
+        config = new SymlConfig(file);
+        config.load();
+        
+        // The first leaf, which save() changes before every save
+        leaf = config;
+        while (leaf.getChildren() != null) {
+            leaf = leaf.getChildren().iterator().next();
+        }
+    }
+    
+    /*
+     * The lexer is lazy, so pull the tokens through the stream one by one,
+     * the same way the parser does.
+     */
+    @Benchmark
+    public int lex(Counters c) {
+        count(c);
+        TokenStream stream = new SymlLexer().lex(text);
+        int last = -1;
+        while (stream.hasNext()) {
+            last = stream.next();
+        }
+        return last;
+    }
+    
+    @Benchmark
+    public SymlNode parse(Counters c, Tokens t) {
+        count(c);
+        SymlNode root = new SymlNode("");
+        new SymlParser().parse(t.stream, root);
+        return root;
+    }
+    
+    @Benchmark
+    public SymlConfig load(Counters c) {
+        count(c);
+        SymlConfig loaded = new SymlConfig(file);
+        loaded.load();
+        return loaded;
+    }
+    
+    /*
+     * A save of an unchanged tree just copies the loaded text, so change a
+     * leaf first, which makes the save splice the text around it.
+     */
+    @Benchmark
+    public boolean save(Counters c) {
+        count(c);
+        leaf.set(saves++);
+        return config.save();
+    }
+    
+    @Benchmark
+    public boolean saveUnchanged(Counters c) {
+        count(c);
+        return config.save();
+    }
+    
+    @Benchmark
+    public String emit(Counters c) {
+        count(c);
+        return new SymlEmitter(config).getText();
+    }
+    
+    private void count(Counters c) {
+        c.megabytes += megabytes;
+        c.lines += lines;
+    }
+}
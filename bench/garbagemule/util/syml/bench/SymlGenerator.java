@@ -0,0 +1,95 @@
+package garbagemule.util.syml.bench;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic SYML documents of a given shape.
+ * <p>Every section has the same number of children, and the sections at
+ * the bottom hold a mix of integer, decimal, boolean, string and list
+ * values. The output is deterministic for a given set of parameters.
+ * 
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlGenerator {
+    private static final String INDENT = "    ";
+    
+    private final int depth;
+    private final int width;
+    private final int listLength;
+    private final int commentDensity;
+    
+    private Random random;
+    private StringBuilder buffy;
+    private int lines;
+    
+    /**
+     * Create a new generator.
+     * @param depth the number of section levels above the values
+     * @param width the number of children of each section
+     * @param listLength the number of items in each list value
+     * @param commentDensity the percentage of keys with a comment above them
+     */
+    public SymlGenerator(int depth, int width, int listLength, int commentDensity) {
+        this.depth = depth;
+        this.width = width;
+        this.listLength = listLength;
+        this.commentDensity = commentDensity;
+    }
+    
+    /**
+     * Generate the document.
+     * @return the document text
+     */
+    public String generate() {
+        random = new Random(42L);
+        buffy = new StringBuilder();
+        lines = 0;
+        
+        line("", "# Synthetic SYML document");
+        line("", "");
+        section("", 0);
+        return buffy.toString();
+    }
+    
+    /**
+     * Get the number of lines in the last generated document.
+     * @return the number of lines
+     */
+    public int getLines() {
+        return lines;
+    }
+    
+    private void section(String indent, int level) {
+        for (int i = 0; i < width; i++) {
+            if (random.nextInt(100) < commentDensity) {
+                line(indent, "# Comment for key number " + i + " on level " + level);
+            }
+            if (level < depth) {
+                line(indent, "section-" + level + "-" + i + ":");
+                section(indent + INDENT, level + 1);
+            } else {
+                value(indent, "key-" + i);
+            }
+        }
+    }
+    
+    private void value(String indent, String key) {
+        switch (random.nextInt(5)) {
+            case 0: line(indent, key + ": " + random.nextInt(100000)); break;
+            case 1: line(indent, key + ": " + (random.nextInt(100000) / 100D)); break;
+            case 2: line(indent, key + ": " + random.nextBoolean()); break;
+            case 3: line(indent, key + ": some string value " + random.nextInt(1000)); break;
+            default:
+                line(indent, key + ":");
+                for (int i = 0; i < listLength; i++) {
+                    line(indent, "- list item " + i);
+                }
+        }
+    }
+    
+    private void line(String indent, String s) {
+        buffy.append(indent).append(s).append('\n');
+        lines++;
+    }
+}
@@ -12,13 +12,11 @@ public class FFCommands implements CommandExecutor
 {
     private FastFood plugin;
     private FoodHealth health;
-    private SymlConfig config;
     
     public FFCommands(FastFood plugin)
     {
         this.plugin = plugin;
         this.health = plugin.getFoodHealth();
-        this.config = plugin.getFFConfig();
     }
     
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args)
@@ -126,9 +124,12 @@ public class FFCommands implements CommandExecutor
                 return true;
             }
             
-            // Change the setting and save the config-file.
-            config.set("settings." + setting.getName(), setting.cast(arg3));
+            // Change the setting and save the config-file. The config may
+            // have been swapped by a reload, so don't hold on to it.
+            SymlConfig config = plugin.getFFConfig();
+            config.set(setting.getPath(), setting.cast(arg3));
             config.save();
+            plugin.updateSettings();
             
             // Inform of change.
             plugin.tell(sender, "Setting changed - " + setting.getName() + ": " + arg3);
@@ -0,0 +1,164 @@
+package garbagemule.FastFood;
+
+import garbagemule.util.syml.SymlConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Watches the data folder, and reloads foodhealth.yml and config.yml when
+ * they are changed by someone else.
+ * <p>The files are parsed and validated on a background thread. Only the
+ * finished FoodHealth and FFSettings are handed to the main thread, which
+ * swaps them in between ticks.
+ */
+public class FFReloader implements Runnable
+{
+    /**
+     * Editors and deployment tools often write a file in several steps,
+     * so wait until the folder has been quiet for this long (in ms).
+     */
+    private static final long DEBOUNCE = 500L;
+
+    private FastFood plugin;
+    private File dir;
+    private WatchService watcher;
+    private Thread thread;
+
+    public FFReloader(FastFood plugin) throws IOException
+    {
+        this.plugin  = plugin;
+        this.dir     = plugin.getDataFolder();
+        this.watcher = FileSystems.getDefault().newWatchService();
+
+        // Saves replace the file with a renamed temp file, so watch creates too
+        dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    public void start()
+    {
+        thread = new Thread(this, "FastFood reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop()
+    {
+        try
+        {
+            watcher.close();
+        }
+        catch (IOException e) {}
+    }
+
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                Set<String> changed = new HashSet<String>();
+
+                // Block until something happens, then wait for it to settle
+                WatchKey key = watcher.take();
+                while (key != null)
+                {
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        // Events were lost, so either file may have changed
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                        {
+                            changed.add("foodhealth.yml");
+                            changed.add("config.yml");
+                        }
+                        else if (event.context() instanceof Path)
+                            changed.add(event.context().toString());
+                    }
+                    key.reset();
+                    key = watcher.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+                }
+
+                if (changed.contains("foodhealth.yml"))
+                    reloadHealth();
+                if (changed.contains("config.yml"))
+                    reloadConfig();
+            }
+        }
+        catch (InterruptedException e) {}
+        catch (ClosedWatchServiceException e) {}
+    }
+
+    private void reloadHealth()
+    {
+        // Our own saves show up as changes too
+        if (!plugin.getHealthConfig().isStale())
+            return;
+
+        final SymlConfig config = load("foodhealth.yml");
+        if (config == null) return;
+
+        // Validates the keys against Material and warns about bad ones
+        final FoodHealth health = new FoodHealth(config);
+
+        Bukkit.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable()
+        {
+            public void run()
+            {
+                plugin.swapHealthConfig(config, health);
+            }
+        });
+    }
+
+    private void reloadConfig()
+    {
+        if (!plugin.getFFConfig().isStale())
+            return;
+
+        final SymlConfig config = load("config.yml");
+        if (config == null) return;
+
+        final FFSettings settings = new FFSettings(config);
+
+        Bukkit.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable()
+        {
+            public void run()
+            {
+                plugin.swapConfig(config, settings);
+            }
+        });
+    }
+
+    /**
+     * Load a fresh config from the data folder.
+     * @return The config, or null if the file could not be loaded
+     */
+    private SymlConfig load(String filename)
+    {
+        SymlConfig config = new SymlConfig(new File(dir, filename));
+        config.setCaching(true);
+        try
+        {
+            if (config.load())
+                return config;
+            FastFood.warning("Could not read " + filename + ", keeping the current values.");
+        }
+        catch (RuntimeException e)
+        {
+            // LexException or ParseException, the file is probably half-edited
+            FastFood.warning("Could not parse " + filename + ", keeping the current values: " + e.getMessage());
+        }
+        return null;
+    }
+}
@@ -1,6 +1,8 @@
 package garbagemule.FastFood;
 
 import garbagemule.FastFood.util.Enums;
+import garbagemule.util.syml.SymlNode;
+import garbagemule.util.syml.SymlPath;
 
 import java.util.regex.Pattern;
 
@@ -12,6 +14,11 @@ public enum FFSetting
         {
             return castBoolean(s);
         }
+        
+        public Object read(SymlNode config)
+        {
+            return config.getBoolean(getPath(), false);
+        }
     },
     HUNGERMULTIPLIER("-?[0-9]+(\\.[0-9]+)?", "hunger-multiplier")
     {
@@ -19,10 +26,16 @@ public enum FFSetting
         {
             return castDouble(s);
         }
+        
+        public Object read(SymlNode config)
+        {
+            return config.getDouble(getPath(), 0D);
+        }
     };
     
-    private Pattern pattern;
-    private String  settingName;
+    private Pattern  pattern;
+    private String   settingName;
+    private SymlPath path;
     
     /**
      * Constructor
@@ -33,6 +46,7 @@ public enum FFSetting
     {
         this.pattern     = Pattern.compile(pattern);
         this.settingName = settingName;
+        this.path        = SymlPath.compile("settings." + settingName);
     }
     
     /**
@@ -42,6 +56,13 @@ public enum FFSetting
      */
     public abstract Object cast(String s);
     
+    /**
+     * Read the value of this setting from a config node.
+     * @param config The node to read from
+     * @return The value of the setting, or its default value
+     */
+    public abstract Object read(SymlNode config);
+    
     /**
      * Get the setting name of this FFSetting
      * @return The setting name
@@ -51,6 +72,15 @@ public enum FFSetting
         return settingName;
     }
     
+    /**
+     * Get the path of this FFSetting in the config-file
+     * @return The compiled path
+     */
+    public SymlPath getPath()
+    {
+        return path;
+    }
+    
     /**
      * Check if the input String is a valid setting value.
      * @param s A setting value
@@ -81,7 +111,7 @@ public enum FFSetting
     
     public static boolean castBoolean(String s)
     {
-        return Boolean.parseBoolean(s);
+        return s.equalsIgnoreCase("true") || s.equalsIgnoreCase("yes");
     }
     
     public static double castDouble(String s)
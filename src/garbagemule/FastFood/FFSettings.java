@@ -0,0 +1,56 @@
+package garbagemule.FastFood;
+
+import garbagemule.util.syml.SymlNode;
+
+/**
+ * An immutable snapshot of all the FFSettings, bound from the config-file
+ * in one pass. Changing a setting means binding a new snapshot and
+ * swapping it in, so readers always see a consistent set of values.
+ */
+public final class FFSettings
+{
+    /**
+     * The settings used when the config-file has none.
+     */
+    public static final FFSettings DEFAULTS = new FFSettings(new SymlNode(""));
+    
+    private final Object[] values;
+    
+    private final boolean affectHunger;
+    private final double  hungerMultiplier;
+    
+    /**
+     * Bind the values of all the FFSettings from a config node.
+     * @param config The node to read the settings from
+     */
+    public FFSettings(SymlNode config)
+    {
+        FFSetting[] settings = FFSetting.values();
+        values = new Object[settings.length];
+        for (FFSetting setting : settings)
+            values[setting.ordinal()] = setting.read(config);
+        
+        affectHunger     = (Boolean) get(FFSetting.AFFECTHUNGER);
+        hungerMultiplier = (Double)  get(FFSetting.HUNGERMULTIPLIER);
+    }
+    
+    /**
+     * Get the value of a setting.
+     * @param setting The setting
+     * @return The value, as a Boolean or Double depending on the setting
+     */
+    public Object get(FFSetting setting)
+    {
+        return values[setting.ordinal()];
+    }
+    
+    public boolean affectHunger()
+    {
+        return affectHunger;
+    }
+    
+    public double getHungerMultiplier()
+    {
+        return hungerMultiplier;
+    }
+}
@@ -1,6 +1,7 @@
 package garbagemule.FastFood;
 
 import java.io.File;
+import java.io.IOException;
 
 import garbagemule.FastFood.util.Files;
 import garbagemule.FastFood.listeners.*;
@@ -14,10 +15,18 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 public class FastFood extends JavaPlugin
 {
-    private SymlConfig config, healthConfig;
+    /**
+     * Delay before config changes are written to disk. Bursts of commands
+     * within this window are coalesced into a single write.
+     */
+    private static final long SAVE_DELAY = 1000L;
+    
+    // Read by the reloader thread, swapped on the main thread
+    private volatile SymlConfig config, healthConfig;
     private FoodHealth health;
-    private double hungerMultiplier;
-    private boolean affectHunger;
+    private FFPermissionCache permissions;
+    private FFReloader reloader;
+    private volatile FFSettings settings = FFSettings.DEFAULTS;
     
     public void onEnable()
     {
@@ -28,13 +37,34 @@ public class FastFood extends JavaPlugin
         setupConfig();
         
         // Listeners.
-        new FFEntityListener(this);
-        new FFPlayerListener(this, health);
+        permissions = new FFPermissionCache(this);
+        new FFEntityListener(this, permissions);
+        new FFPlayerListener(this, health, permissions);
         
         // Commands
         CommandExecutor commandExecutor = new FFCommands(this); 
         getCommand("ff").setExecutor(commandExecutor); 
         getCommand("fastfood").setExecutor(commandExecutor);
+        
+        // Hot reload of the config-files.
+        try
+        {
+            reloader = new FFReloader(this);
+            reloader.start();
+        }
+        catch (IOException e)
+        {
+            warning("Could not watch the plugin folder, changes to the config-files require a restart.");
+        }
+    }
+    
+    public void onDisable()
+    {
+        if (reloader != null) reloader.stop();
+        
+        // Write any pending config changes before the plugin goes away.
+        if (config != null)       config.flush();
+        if (healthConfig != null) healthConfig.flush();
     }
     
     private void setupHealthConfig()
@@ -47,9 +77,48 @@ public class FastFood extends JavaPlugin
     private void setupConfig()
     {
         config = getConfigFromFile(getDataFolder(), "config.yml");
+        updateSettings();
+    }
+    
+    /**
+     * Bind a new settings snapshot from the config-file, and swap it in.
+     */
+    public void updateSettings()
+    {
+        settings = new FFSettings(config);
+    }
+    
+    /**
+     * Replace foodhealth.yml with a freshly loaded version. Must be called
+     * on the main thread.
+     * @param fresh The new config
+     * @param prepared A FoodHealth built from the new config
+     */
+    public void swapHealthConfig(SymlConfig fresh, FoodHealth prepared)
+    {
+        // The file on disk is newer than anything still waiting to be written
+        healthConfig.discard();
+        fresh.setWriteBehind(SAVE_DELAY);
         
-        affectHunger     = config.getBoolean("settings.affect-hunger", false);
-        hungerMultiplier = config.getDouble("settings.hunger-multiplier", 0D);
+        healthConfig = fresh;
+        health.replace(prepared);
+        info("Reloaded foodhealth.yml");
+    }
+    
+    /**
+     * Replace config.yml with a freshly loaded version. Must be called on
+     * the main thread.
+     * @param fresh The new config
+     * @param prepared The settings bound from the new config
+     */
+    public void swapConfig(SymlConfig fresh, FFSettings prepared)
+    {
+        config.discard();
+        fresh.setWriteBehind(SAVE_DELAY);
+        
+        config = fresh;
+        settings = prepared;
+        info("Reloaded config.yml");
     }
     
     private SymlConfig getConfigFromFile(File dir, String filename)
@@ -60,23 +129,25 @@ public class FastFood extends JavaPlugin
         File file = new File(dir, filename);
         
         SymlConfig config = new SymlConfig(file);
+        config.setCaching(true);
         config.load();
+        config.setWriteBehind(SAVE_DELAY);
         return config;
     }
     
-    public boolean affectHunger()
+    public FFSettings getSettings()
     {
-        return affectHunger;
+        return settings;
     }
     
-    public double getHungerMultiplier()
+    public SymlConfig getFFConfig()
     {
-        return hungerMultiplier;
+        return config;
     }
     
-    public SymlConfig getFFConfig()
+    public SymlConfig getHealthConfig()
     {
-        return config;
+        return healthConfig;
     }
     
     public FoodHealth getFoodHealth()
@@ -84,6 +155,11 @@ public class FastFood extends JavaPlugin
         return health;
     }
     
+    public FFPermissionCache getPermissionCache()
+    {
+        return permissions;
+    }
+    
     public void tell(CommandSender p, String msg)
     {
         p.sendMessage(ChatColor.YELLOW + "[FastFood] " + ChatColor.WHITE + msg);
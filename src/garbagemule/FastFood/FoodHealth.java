@@ -1,7 +1,5 @@
 package garbagemule.FastFood;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 import org.bukkit.Material;
@@ -10,23 +8,85 @@ import garbagemule.FastFood.util.Enums;
 import garbagemule.util.syml.SymlConfig;
 
 public class FoodHealth {
-    private static final int ENCHANTED_GOLDEN_APPLE_ID = Integer.MIN_VALUE;
+    /**
+     * Number of data/variant slots per type ID. Slot 0 is the plain item,
+     * slot 1 is used for the enchanted golden apple.
+     */
+    private static final int VARIANTS = 2;
+    private static final int ENCHANTED = 1;
+    private static final int GOLDEN_APPLE = Material.GOLDEN_APPLE.getId();
     
-    private Map<Integer,Integer> map = new HashMap<Integer,Integer>();
+    /**
+     * The current food table. It is never modified once published; changes
+     * build a new table and swap the reference, so readers never see a
+     * half-built table.
+     */
+    private volatile Table table;
     private SymlConfig config;
     
     public FoodHealth(SymlConfig config) {
         this.config = config;
+        this.table  = compile(config, true);
+    }
+    
+    /**
+     * Take over the config and food table of another FoodHealth, e.g. one
+     * that was loaded and validated on another thread. Must be called on
+     * the main thread.
+     * @param other The FoodHealth to take over from
+     */
+    void replace(FoodHealth other) {
+        this.config = other.config;
+        this.table  = other.table;
+    }
+    
+    /**
+     * An immutable food table.
+     */
+    private static final class Table {
+        /** Health values, indexed by (id * VARIANTS + variant). */
+        private final int[] health;
+        /** One bit per type ID, set if any variant has a health value. */
+        private final long[] edible;
         
+        private Table(int[] health) {
+            this.health = health;
+            this.edible = new long[(health.length / VARIANTS + 63) >>> 6];
+            for (int slot = 0; slot < health.length; slot++) {
+                if (health[slot] != 0) {
+                    int id = slot / VARIANTS;
+                    edible[id >>> 6] |= 1L << id;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Build a food table from the given config.
+     * <p>Variant slots only get a value if they are given one explicitly,
+     * i.e. an enchanted golden apple is eaten the vanilla way unless the
+     * config has a value for it, regardless of the plain golden apple.
+     * @param config the config to build from
+     * @param warn true, if invalid keys and values should be reported
+     * @return a new food table
+     */
+    private static Table compile(SymlConfig config, boolean warn) {
         Set<String> keys = config.getKeys();
-        if (keys == null) {
-            FastFood.warning("No keys found in foodhealth.yml.");
-            return;
+        if (keys == null || keys.isEmpty()) {
+            if (warn) FastFood.warning("No keys found in foodhealth.yml.");
+            return new Table(new int[0]);
         }
         
+        // Parallel arrays of (slot, value) pairs, resolved in two passes
+        int[] slots  = new int[keys.size()];
+        int[] values = new int[keys.size()];
+        int count = 0;
+        int maxId = -1;
+        
         for (String s : keys) {
-            Material mat = fromString(s);
+            Material mat = Enums.getEnumFromString(Material.class, s);
             int id = 0;
+            int variant = 0;
             
             // Map the value to the material ID
             if (mat != null) {
@@ -34,9 +94,10 @@ public class FoodHealth {
             } else {
                 // Enchanted golden apples are special, handle with care
                 if (s.equals("enchanted_golden_apple")) {
-                    id = ENCHANTED_GOLDEN_APPLE_ID;
+                    id = GOLDEN_APPLE;
+                    variant = ENCHANTED;
                 } else {
-                    FastFood.warning("The key '" + s + "' is invalid.");
+                    if (warn) FastFood.warning("The key '" + s + "' is invalid.");
                     continue;
                 }
             }
@@ -44,12 +105,21 @@ public class FoodHealth {
             // Grab the value out of the config
             int value = config.getInt(s, 0);
             if (value == 0) {
-                FastFood.warning("The value of key '" + s + "' is 0. Skipping...");
+                if (warn) FastFood.warning("The value of key '" + s + "' is 0. Skipping...");
                 continue;
             }
             
-            map.put(id, value);
+            slots[count]  = id * VARIANTS + variant;
+            values[count] = value;
+            count++;
+            maxId = Math.max(maxId, id);
+        }
+        
+        int[] result = new int[(maxId + 1) * VARIANTS];
+        for (int i = 0; i < count; i++) {
+            result[slots[i]] = values[i];
         }
+        return new Table(result);
     }
     
     /**
@@ -58,7 +128,7 @@ public class FoodHealth {
      * @return The health value if it exists, 0 otherwise.
      */
     public int getHealth(Material mat) {
-        return getHealth(mat.getId());
+        return getHealth(mat.getId(), 0);
     }
     
     /**
@@ -67,8 +137,38 @@ public class FoodHealth {
      * @return The health value if it exists, 0 otherwise.
      */
     public int getHealth(int id) {
-        Integer health = map.get(id);
-        return (health == null) ? 0 : health;
+        return getHealth(id, 0);
+    }
+    
+    /**
+     * Get the health value of a type ID and data value from the config-file.
+     * <p>Only the enchanted golden apple is a variant of its own, and any
+     * other data value uses the value of the plain item.
+     * @param id The type ID whose health value to get
+     * @param data The data value (durability) of the item
+     * @return The health value if it exists, 0 otherwise.
+     */
+    public int getHealth(int id, int data) {
+        int[] t = table.health;
+        // Check the id first, id * VARIANTS overflows for large ids
+        if (id < 0 || id >= t.length / VARIANTS) {
+            return 0;
+        }
+        int variant = (id == GOLDEN_APPLE && data == ENCHANTED ? ENCHANTED : 0);
+        return t[id * VARIANTS + variant];
+    }
+    
+    /**
+     * Check if a type ID has a health value for any of its data values.
+     * <p>This is a single array read, and meant as a quick way to reject
+     * items that aren't food at all.
+     * @param id The type ID to check
+     * @return true, if the type ID has a health value, false otherwise.
+     */
+    public boolean isEdible(int id) {
+        long[] e = table.edible;
+        int word = id >>> 6;
+        return id >= 0 && word < e.length && (e[word] & (1L << id)) != 0;
     }
     
     /**
@@ -76,7 +176,7 @@ public class FoodHealth {
      * @return The health value if it exists, 0 otherwise.
      */
     public int getEnchantedGoldenApple() {
-        return getHealth(ENCHANTED_GOLDEN_APPLE_ID);
+        return getHealth(GOLDEN_APPLE, ENCHANTED);
     }
     
     /**
@@ -94,8 +194,8 @@ public class FoodHealth {
      * @param value A health value.
      */
     public void setHealth(Material mat, int value) {
-        map.put(mat.getId(), value);
         config.set(mat.toString().toLowerCase(), value);
+        table = compile(config, false);
         config.save();
     }
     
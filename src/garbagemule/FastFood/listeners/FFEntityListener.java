@@ -13,30 +13,33 @@ import org.bukkit.event.entity.EntityRegainHealthEvent.RegainReason;
 
 public class FFEntityListener implements Listener
 {
-    public FFEntityListener(FastFood plugin)
+    private FFPermissionCache permissions;
+    
+    public FFEntityListener(FastFood plugin, FFPermissionCache permissions)
     {
+        this.permissions = permissions;
         Bukkit.getServer().getPluginManager().registerEvents(this, plugin);
     }
     
-    @EventHandler
+    @EventHandler(ignoreCancelled = true)
     public void onEntityDamage(EntityDamageEvent event)
     {
         if (event.getCause() != DamageCause.STARVATION || !(event.getEntity() instanceof Player))
             return;
         
         Player p = (Player) event.getEntity();
-        if (p.hasPermission("fastfood.nostarve"))
+        if (permissions.has(p, FFPermissionCache.NOSTARVE))
             event.setCancelled(true);
     }
 
-    @EventHandler
+    @EventHandler(ignoreCancelled = true)
     public void onEntityRegainHealth(EntityRegainHealthEvent event)
     {
-        if (!(event.getEntity() instanceof Player))
+        if (event.getRegainReason() != RegainReason.SATIATED || !(event.getEntity() instanceof Player))
             return;
 
         Player p = (Player) event.getEntity();
-        if (event.getRegainReason() == RegainReason.SATIATED && !p.hasPermission("fastfood.autoregain"))
+        if (!permissions.has(p, FFPermissionCache.AUTOREGAIN))
             event.setCancelled(true);
     }
 }
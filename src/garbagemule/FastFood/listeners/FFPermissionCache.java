@@ -0,0 +1,134 @@
+package garbagemule.FastFood.listeners;
+
+import garbagemule.FastFood.FastFood;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Keeps a snapshot of the fastfood.* permissions of every online player
+ * as a bitset, such that the event handlers don't have to ask the
+ * permissions plugin on every single event.
+ */
+public class FFPermissionCache implements Listener
+{
+    public static final int INSTANTEAT = 1 << 0;
+    public static final int NOSTARVE   = 1 << 1;
+    public static final int AUTOREGAIN = 1 << 2;
+
+    private static final String[] NODES = {
+        "fastfood.instanteat",
+        "fastfood.nostarve",
+        "fastfood.autoregain"
+    };
+
+    /**
+     * Permission plugins don't tell anyone when they change a player's
+     * permissions, so resync every now and then (in ticks).
+     */
+    private static final long REFRESH_PERIOD = 600L;
+
+    private Map<String,Integer> cache = new HashMap<String,Integer>();
+
+    public FFPermissionCache(FastFood plugin)
+    {
+        Bukkit.getServer().getPluginManager().registerEvents(this, plugin);
+
+        // Players may already be online if the plugin was reloaded
+        refreshAll();
+
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                refreshAll();
+            }
+        };
+        Bukkit.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, task, REFRESH_PERIOD, REFRESH_PERIOD);
+    }
+
+    /**
+     * Check if the player has the given permission(s).
+     * @param p The player
+     * @param perm One of the permission bits, or several OR'ed together
+     * @return true, if the player has all of the given permissions
+     */
+    public boolean has(Player p, int perm)
+    {
+        Integer bits = cache.get(p.getName());
+        if (bits != null)
+            return (bits & perm) == perm;
+
+        // NPCs and fake players never join or quit, so don't keep them around
+        if (p.isOnline())
+            return (refresh(p) & perm) == perm;
+        return (lookup(p) & perm) == perm;
+    }
+
+    /**
+     * Look up the permissions of the player and update the snapshot.
+     * @param p The player
+     * @return The new permission bits of the player
+     */
+    public int refresh(Player p)
+    {
+        int bits = lookup(p);
+        cache.put(p.getName(), bits);
+        return bits;
+    }
+
+    /**
+     * Ask the permissions plugin for the permissions of the player.
+     * @param p The player
+     * @return The permission bits of the player
+     */
+    private int lookup(Player p)
+    {
+        int bits = 0;
+        for (int i = 0; i < NODES.length; i++)
+        {
+            if (p.hasPermission(NODES[i]))
+                bits |= 1 << i;
+        }
+        return bits;
+    }
+
+    /**
+     * Update the snapshots of all online players, e.g. after the
+     * permissions plugin has been reloaded.
+     */
+    public void refreshAll()
+    {
+        cache.clear();
+        for (Player p : Bukkit.getServer().getOnlinePlayers())
+            refresh(p);
+    }
+
+    // Monitor, so the permissions plugins have done their thing first
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event)
+    {
+        refresh(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event)
+    {
+        refresh(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event)
+    {
+        cache.remove(event.getPlayer().getName());
+    }
+}
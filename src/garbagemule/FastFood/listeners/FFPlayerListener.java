@@ -1,5 +1,6 @@
 package garbagemule.FastFood.listeners;
 
+import garbagemule.FastFood.FFSettings;
 import garbagemule.FastFood.FastFood;
 import garbagemule.FastFood.FoodHealth;
 
@@ -9,6 +10,7 @@ import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Event.Result;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.player.PlayerInteractEvent;
@@ -18,36 +20,56 @@ public class FFPlayerListener implements Listener
 {
     private FastFood plugin;
     private FoodHealth foodHealth;
+    private FFPermissionCache permissions;
     
-    public FFPlayerListener(FastFood plugin, FoodHealth foodHealth)
+    public FFPlayerListener(FastFood plugin, FoodHealth foodHealth, FFPermissionCache permissions)
     {
-        this.plugin     = plugin;
-        this.foodHealth = foodHealth;
+        this.plugin      = plugin;
+        this.foodHealth  = foodHealth;
+        this.permissions = permissions;
         Bukkit.getServer().getPluginManager().registerEvents(this, plugin);
     }
     
-    @EventHandler
+    /*
+     * Filters run cheapest first, so the vast majority of interactions
+     * (block placement, doors, tools) return after one array read.
+     * 
+     * Note that ignoreCancelled can't be used here, because Bukkit fires
+     * right clicks on air as cancelled events (there is no block to use),
+     * and that's where most eating happens. Instead, we skip the event if
+     * another plugin has denied the use of the cake or the item in hand.
+     */
+    @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerInteract(PlayerInteractEvent event)
     {
         Action a = event.getAction();
         
-        // If the player left clicks, return
-        if (a == Action.LEFT_CLICK_AIR || a == Action.LEFT_CLICK_BLOCK)
+        // Only right clicks
+        if (a != Action.RIGHT_CLICK_AIR && a != Action.RIGHT_CLICK_BLOCK)
+            return;
+        
+        // Is it cake or food? If neither, return
+        boolean cake = event.hasBlock() && event.getClickedBlock().getTypeId() == 92;
+        if (cake) {
+            if (!foodHealth.isEdible(354))
+                return;
+        } else if (!event.hasItem() || !foodHealth.isEdible(event.getItem().getTypeId())) {
             return;
+        }
         
-        // The event must either have an item or a block
-        if (!event.hasItem() && !event.hasBlock())
+        // Someone else said no
+        if ((cake ? event.useInteractedBlock() : event.useItemInHand()) == Result.DENY)
             return;
         
         // Check if the player has permission
         Player p = event.getPlayer();
-        if (!p.hasPermission("fastfood.instanteat"))
+        if (!permissions.has(p, FFPermissionCache.INSTANTEAT))
             return;
         
         // If they do, handle either cake placement or food consumption.
-        if (event.hasBlock() && event.getClickedBlock().getTypeId() == 92)
+        if (cake)
             onPlayerRightClickCake(p, event);
-        else if (event.hasItem())
+        else
             onPlayerRightClick(p, event);
     }
     
@@ -74,13 +96,9 @@ public class FFPlayerListener implements Listener
         // Grab the type ID
         int typeId = item.getTypeId();
         
-        // Grab the health value, and be careful about golden apples
-        int health = 0;
-        if (typeId == 322 && item.getData() != null && item.getData().getData() == (byte) 1) {
-            health = foodHealth.getEnchantedGoldenApple();
-        } else {
-            health = foodHealth.getHealth(typeId);
-        }
+        // Grab the health value; the data value picks the variant, e.g.
+        // for enchanted golden apples
+        int health = foodHealth.getHealth(typeId, item.getDurability());
         
         // No value or the player can't eat? Return
         if (health == 0 || !canEat(p, health)) {
@@ -110,9 +128,10 @@ public class FFPlayerListener implements Listener
         p.setHealth((int) newHealth);
 
         // Set hunger
-        if (plugin.affectHunger())
+        FFSettings settings = plugin.getSettings();
+        if (settings.affectHunger())
         {
-            double hunger = plugin.getHungerMultiplier() * health;
+            double hunger = settings.getHungerMultiplier() * health;
             hunger = hunger > 0D ? Math.max(1D, hunger) : Math.min(-1D, hunger);
             p.setFoodLevel(p.getFoodLevel() + (int) hunger);
         }
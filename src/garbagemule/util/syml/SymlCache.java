@@ -0,0 +1,376 @@
+package garbagemule.util.syml;
+
+import garbagemule.util.syml.SymlNode.Children;
+import garbagemule.util.syml.SymlNode.Node;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SymlCache reads and writes a compact binary image of a parsed
+ * document, such that a file that hasn't changed since it was last parsed
+ * can be loaded without lexing and parsing it again.
+ *
+ * <p>The image holds the whole tree: the keys, comments and typed values,
+ * as well as the source offsets of the nodes, so a tree read from the
+ * cache can be spliced into just like a parsed one. The distinct keys come
+ * first, and the nodes refer to them by index. Strings are UTF-8, and
+ * lengths, counts and indexes are variable-length ints, so most of them
+ * take up a single byte. It is tied to the
+ * text it was parsed from by the size and modification time of the file,
+ * and a hash of the decoded text. A cache that doesn't match, or can't be
+ * read for whatever reason, is ignored.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+class SymlCache {
+    private static final int MAGIC   = 0x53594D4C; // "SYML"
+    private static final int VERSION = 2;
+
+    // Node kinds
+    private static final byte EMPTY  = 0;
+    private static final byte STRING = 1;
+    private static final byte INT    = 2;
+    private static final byte LONG   = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte TRUE   = 5;
+    private static final byte FALSE  = 6;
+    private static final byte LIST   = 7;
+    private static final byte PARENT = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private SymlCache() {}
+
+    /**
+     * Get the cache file of the given source file.
+     * @param file the source file
+     * @return the cache file, which may not exist
+     */
+    static File of(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".cache");
+    }
+
+    /**
+     * Hash the given text. The hash is FNV-1a over the characters, which
+     * is cheap compared to lexing them, and good enough to notice edits
+     * that leave the size and modification time of a file alone.
+     * @param text the text
+     * @param length the length of the text
+     * @return the hash of the text
+     */
+    static long hash(char[] text, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= text[i];
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Write the cache of a tree parsed from the given source file. The
+     * cache goes to a temporary file first, such that readers never see a
+     * half-written one.
+     * @param source the source file, as it was when the text was read
+     * @param text the text the tree was parsed from
+     * @param length the length of the text
+     * @param root the root of the parsed tree
+     * @param comment the comment of the root
+     * @throws IOException if the cache couldn't be written, or the tree
+     * holds values that the parser doesn't produce
+     */
+    static void write(File source, char[] text, int length, Node root, String comment) throws IOException {
+        File cache = of(source);
+        File tmp = new File(cache.getParentFile(), cache.getName() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(source.length());
+                out.writeLong(source.lastModified());
+                out.writeInt(length);
+                out.writeLong(hash(text, length));
+
+                Map<String, Integer> keys = new HashMap<String, Integer>();
+                List<String> table = new ArrayList<String>();
+                collectKeys(root, keys, table);
+                writeInt(out, table.size());
+                for (String key : table) {
+                    writeString(out, key);
+                }
+                writeNode(out, root, comment, keys);
+            } finally {
+                out.close();
+            }
+            SymlConfig.replace(tmp, cache);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    private static void collectKeys(Node node, Map<String, Integer> keys, List<String> table) {
+        if (!keys.containsKey(node.name)) {
+            keys.put(node.name, table.size());
+            table.add(node.name);
+        }
+        Children children = node.children();
+        if (children != null) {
+            for (Node child : children) {
+                collectKeys(child, keys, table);
+            }
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Node node, String comment, Map<String, Integer> keys) throws IOException {
+        writeInt(out, keys.get(node.name));
+        writeString(out, comment);
+        writeInt(out, node.start + 2); // -1 and SCATTERED, too
+
+        Children children = node.children();
+        if (children != null) {
+            out.writeByte(PARENT);
+            writeInt(out, children.size());
+            for (int i = 0; i < children.size(); i++) {
+                writeNode(out, children.at(i), children.commentAt(i), keys);
+            }
+            return;
+        }
+
+        switch (node.type) {
+            case Node.INT:
+                out.writeByte(INT);
+                out.writeInt((int) node.bits);
+                return;
+            case Node.LONG:
+                out.writeByte(LONG);
+                out.writeLong(node.bits);
+                return;
+            case Node.DOUBLE:
+                out.writeByte(DOUBLE);
+                out.writeLong(node.bits);
+                return;
+            case Node.BOOLEAN:
+                out.writeByte(node.bits != 0 ? TRUE : FALSE);
+                return;
+        }
+
+        Object data = node.data;
+        if (data == null) {
+            out.writeByte(EMPTY);
+        } else if (data instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) data);
+        } else if (data instanceof List<?>) {
+            List<?> list = (List<?>) data;
+            out.writeByte(LIST);
+            writeInt(out, list.size());
+            for (Object o : list) {
+                if (!(o instanceof String)) {
+                    throw new IOException("Cannot cache list items of type " + (o == null ? "null" : o.getClass().getName()));
+                }
+                writeString(out, (String) o);
+            }
+        } else {
+            throw new IOException("Cannot cache values of type " + data.getClass().getName());
+        }
+    }
+
+    /**
+     * Write a String as its UTF-8 length plus one, or 0 for null, and its
+     * UTF-8 bytes. Unpaired surrogates don't survive the trip, so a String
+     * with one can't be cached.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeInt(out, 0);
+            return;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                throw new IOException("Cannot cache unpaired surrogates");
+            }
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        writeInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    /**
+     * Write a non-negative int in groups of seven bits, lowest first, with
+     * the high bit set on all but the last group.
+     */
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read the cached tree of the given source file, if the cache matches
+     * the text that was read from it.
+     * @param source the source file
+     * @param text the text that was read from the source file
+     * @param length the length of the text
+     * @param keys the pool to intern the keys in
+     * @return the root of the cached tree, or null if there is no cache,
+     * or it doesn't match the text
+     */
+    static Node read(File source, char[] text, int length, SymlKeys keys) {
+        File cache = of(source);
+        if (!cache.isFile()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(cache);
+            ByteBuffer buffer = map(in.getChannel());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            // The cheap checks first, the hash only if they pass
+            if (buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()) {
+                return null;
+            }
+            if (buffer.getInt() != length || buffer.getLong() != hash(text, length)) {
+                return null;
+            }
+            String[] table = new String[readCount(buffer)];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = keys.intern(readString(buffer));
+            }
+            Node root = readNode(buffer, null, table);
+            return (buffer.hasRemaining() ? null : root);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // A damaged cache, e.g. a BufferUnderflowException
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large.");
+        }
+        if (SymlConfig.MAP_ALLOWED) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1);
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+     * The nodes are owned by no epoch, so the first write to any of them
+     * copies it, like it would for any node that has been read. Comments
+     * go into the children of the parent, and the one of the root, which
+     * has no parent, is dropped like the parser drops it.
+     */
+    private static Node readNode(ByteBuffer buffer, Children parent, String[] keys) throws IOException {
+        Node node = new Node(keys[readInt(buffer)], null);
+        String comment = readString(buffer);
+        node.start = readInt(buffer) - 2;
+        if (parent != null) {
+            parent.add(node, comment);
+        }
+
+        byte kind = buffer.get();
+        switch (kind) {
+            case EMPTY:  break;
+            case STRING: node.data = readString(buffer);                   break;
+            case INT:    node.setPrimitive(Node.INT, buffer.getInt());     break;
+            case LONG:   node.setPrimitive(Node.LONG, buffer.getLong());   break;
+            case DOUBLE: node.setPrimitive(Node.DOUBLE, buffer.getLong()); break;
+            case TRUE:   node.setPrimitive(Node.BOOLEAN, 1);               break;
+            case FALSE:  node.setPrimitive(Node.BOOLEAN, 0);               break;
+            case LIST: {
+                int size = readCount(buffer);
+                List<String> list = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readString(buffer));
+                }
+                node.data = list;
+                break;
+            }
+            case PARENT: {
+                int size = readCount(buffer);
+                Children children = new Children(size);
+                for (int i = 0; i < size; i++) {
+                    readNode(buffer, children, keys);
+                }
+                node.children = children;
+                break;
+            }
+            default:
+                throw new IOException("Unknown node kind " + kind);
+        }
+        return node;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = readInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("Truncated string");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Read the number of the entries that follow, each of which takes up
+     * at least a byte, such that a damaged cache can't make the reader
+     * allocate more than the size of the cache.
+     */
+    private static int readCount(ByteBuffer buffer) throws IOException {
+        int count = readInt(buffer);
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException("Bad count " + count);
+        }
+        return count;
+    }
+
+    private static int readInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed int");
+    }
+}
@@ -5,8 +5,23 @@ import garbagemule.util.syml.parser.SymlParser;
 import garbagemule.util.syml.parser.token.TokenStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.util.Scanner;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The SymlConfig class realizes an internal representation of a config
@@ -18,8 +33,59 @@ import java.util.Scanner;
  * @version 0.1
  */
 public class SymlConfig extends SymlNode {
-    private File file;
+    /**
+     * Files at least this big are memory-mapped rather than read.
+     */
+    private static final int MAP_THRESHOLD = 1 << 20;
+    
+    /**
+     * Windows won't let anyone replace a file while it is mapped, and the
+     * mapping lives until the buffer is garbage collected, so a save right
+     * after a load would fail.
+     */
+    static final boolean MAP_ALLOWED = !System.getProperty("os.name", "").startsWith("Windows");
+    
+    /**
+     * The pool that parallel loads parse on, shared by all configs.
+     */
+    private static ForkJoinPool pool;
+    
+    private volatile File file;
     private String encoding;
+    private CharsetDecoder decoder;
+    private char[] chars;
+    
+    /**
+     * The text of the file as of the last load, and the tree parsed from
+     * it. Saves copy the text of the nodes that haven't changed since.
+     */
+    private SymlSplicer splicer;
+    
+    /**
+     * Whether parsed trees are cached next to the file.
+     */
+    private boolean caching;
+    
+    /**
+     * Whether sections are only scanned when they are first read.
+     */
+    private boolean lazy;
+    
+    /**
+     * Whether top-level sections are parsed in parallel.
+     */
+    private boolean parallel;
+    
+    private long writeDelay;
+    private ScheduledThreadPoolExecutor writer;
+    private final AtomicReference<PendingWrite> pending = new AtomicReference<PendingWrite>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    
+    /**
+     * Modification time and size of the file as of the last load or save.
+     */
+    private volatile long diskModified = -1, diskLength = -1;
     
     /**
      * Create a new SymlConfig with no associated file.
@@ -51,9 +117,154 @@ public class SymlConfig extends SymlNode {
      * @param file the File to load from and/or save to
      */
     public synchronized void setFile(File file) {
+        flush();
         this.file = file;
     }
     
+    /**
+     * Enable or disable write-behind saving.
+     * <p>With write-behind enabled, the parameterless save() method only
+     * takes a snapshot of the document, which takes constant time, and
+     * returns. A background thread
+     * writes the snapshot to disk after the given delay, and any saves
+     * made in the meantime are coalesced into that single write. Writes
+     * go to a temporary file which then replaces the target file, so a
+     * crash never leaves a half-written config behind.
+     * <p>Call flush() before shutting down to make sure the latest
+     * snapshot has been written.
+     * @param delay the delay in milliseconds before a pending snapshot
+     * is written, or 0 to disable write-behind and save synchronously
+     */
+    public synchronized void setWriteBehind(long delay) {
+        if (delay <= 0) {
+            flush();
+            writeDelay = 0;
+            return;
+        }
+        if (writer == null) {
+            writer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SymlConfig writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // Let the thread die when idle, so reloads don't leak threads
+            writer.setKeepAliveTime(5, TimeUnit.SECONDS);
+            writer.allowCoreThreadTimeOut(true);
+        }
+        writeDelay = delay;
+    }
+    
+    /**
+     * Write any pending write-behind snapshot to disk immediately.
+     * <p>The calling thread blocks until the write has completed. If no
+     * snapshot is pending, the method returns immediately. If the file of
+     * the SymlConfig has been changed by someone else since it was last
+     * loaded or saved, the snapshot is dropped instead, like discard()
+     * does, so the edited file wins, and the next load picks it up.
+     * @return true, if there was nothing to write, or the pending data
+     * was written successfully or dropped, false otherwise
+     */
+    public boolean flush() {
+        synchronized (writeLock) {
+            PendingWrite p = pending.getAndSet(null);
+            if (p == null) {
+                return true;
+            }
+            // A file that was never loaded or saved can't be stale
+            if (p.file.equals(file) && diskModified != -1 && isStale()) {
+                return true;
+            }
+            if (write(p.file, p.snapshot, p.encoding, p.splicer)) {
+                return true;
+            }
+            // Keep it around for the next attempt, unless superseded
+            pending.compareAndSet(null, p);
+            return false;
+        }
+    }
+    
+    /**
+     * Drop any pending write-behind snapshot without writing it.
+     * <p>This is meant for when the file has been replaced by a newer
+     * version from elsewhere, which the snapshot must not overwrite.
+     * A write that is already in progress is not stopped.
+     */
+    public void discard() {
+        pending.set(null);
+    }
+    
+    /**
+     * Check if the file has been changed by someone else since this
+     * SymlConfig last loaded or saved it.
+     * <p>The check compares the modification time and size of the file,
+     * so it is cheap, and safe to call from any thread.
+     * @return true, if the file has changed on disk, false otherwise, or
+     * if the SymlConfig has no file
+     */
+    public boolean isStale() {
+        File f = file;
+        if (f == null) {
+            return false;
+        }
+        return f.lastModified() != diskModified || f.length() != diskLength;
+    }
+    
+    /**
+     * Enable or disable the binary cache of the file.
+     * <p>With caching enabled, loading the file writes a compact binary
+     * image of the parsed tree next to it, named after the file with a
+     * ".cache" suffix. The next load reads the tree straight from the
+     * image, without lexing or parsing, as long as the size, modification
+     * time and text of the file are the same as when the image was
+     * written. A missing, stale or damaged image is simply replaced.
+     * <p>Only loads of the file of the SymlConfig into an empty tree use
+     * the cache.
+     * @param caching true to enable caching, false to disable it
+     */
+    public synchronized void setCaching(boolean caching) {
+        this.caching = caching;
+    }
+    
+    /**
+     * Enable or disable lazy loading.
+     * <p>With lazy loading enabled, the load() methods only check that the
+     * text is well-formed, which creates no nodes at all. The children of
+     * a section are created from the text the first time they are read,
+     * e.g. by getChild(), getKeys() or any of the getters, so memory use
+     * and load time depend on how much of the document is actually read.
+     * <p>The text of the file is kept in memory until all of it has been
+     * read. Documents that are out of the ordinary, e.g. with keys that
+     * contain periods, are parsed as usual, and so are loads into a tree
+     * that isn't empty. A lazy load doesn't write the binary cache.
+     * @param lazy true to enable lazy loading, false to disable it
+     */
+    public synchronized void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+    
+    /**
+     * Enable or disable parallel loading.
+     * <p>With parallel loading enabled, the load() methods split large
+     * documents in front of their top-level keys, and parse the pieces on
+     * all cores. The resulting tree is the same as that of a normal load,
+     * and so are the exceptions thrown for malformed documents. Small
+     * documents, and loads into a tree that isn't empty, are parsed as
+     * usual. A cached or lazy load takes precedence over a parallel one.
+     * @param parallel true to enable parallel loading, false to disable it
+     */
+    public synchronized void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+    
     /**
      * Set the encoding to use when loading and saving the SymlConfig.
      * <p>The default encoding for a SymlConfig is UTF-8.
@@ -65,6 +276,7 @@ public class SymlConfig extends SymlNode {
             return false;
         }
         this.encoding = encoding;
+        this.decoder  = null;
         return true;
     }
     
@@ -84,24 +296,142 @@ public class SymlConfig extends SymlNode {
         if (file == null) {
             throw new NullPointerException("Cannot load from a null file.");
         }
-        Scanner scan = null;
+        FileInputStream in = null;
         try {
-            scan = new Scanner(file, encoding);
-            scan.useDelimiter("\\A");
-
-            String text = scan.next();
-
-            SymlLexer lexer = new SymlLexer();
-            TokenStream stream = lexer.lex(text);
+            // Stamp with what the file looked like before the read, so a
+            // rewrite during the parse still shows up as stale afterwards
+            long modified = file.lastModified();
+            long length   = file.length();
+            
+            in = new FileInputStream(file);
+            CharBuffer text = decode(read(in.getChannel()));
             
-            SymlParser parser = new SymlParser();
-            parser.parse(stream, this);
+            // Only a fresh tree lines up with the text
+            boolean fresh = (node().children() == null);
+            boolean own = file.equals(this.file);
+            
+            Node cached = null;
+            if (caching && fresh && own) {
+                cached = SymlCache.read(file, text.array(), text.position(), getKeyPool());
+            }
+            
+            Node scanned = null;
+            if (cached == null && lazy && fresh) {
+                scanned = SymlScanner.scan(text.array(), text.position(), getKeyPool());
+            }
+            
+            if (cached != null) {
+                install(cached);
+            } else if (scanned != null) {
+                install(scanned);
+                chars = null; // The sections refer to the buffer
+            } else {
+                try {
+                    if (parallel && fresh) {
+                        SymlParser.parse(text.array(), text.position(), this, pool());
+                    } else {
+                        SymlLexer lexer = new SymlLexer();
+                        TokenStream stream = lexer.lex(text.array(), text.position());
+                        
+                        SymlParser parser = new SymlParser();
+                        parser.parse(stream, this);
+                    }
+                } catch (RuntimeException e) {
+                    chars = null; // The exception refers to the buffer
+                    throw e;
+                }
+                
+                if (caching && fresh && own) {
+                    try {
+                        SymlCache.write(file, text.array(), text.position(), node(), getComment());
+                    } catch (IOException e) {
+                        // The cache is optional, the next load just parses again
+                    }
+                }
+            }
+            stamp(file, modified, length);
+            
+            splicer = null;
+            if (fresh && own) {
+                splicer = SymlSplicer.create(text.array(), text.position(), node(), getComment());
+                chars = null; // The splicer owns the buffer now
+            }
             return true;
         } catch (IOException e) {
             return false;
         } finally {
-            if (scan != null) scan.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+    
+    /**
+     * Read the contents of a file channel, mapping it into memory if it
+     * is large enough for that to pay off.
+     */
+    private ByteBuffer read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large.");
+        }
+        if (size >= MAP_THRESHOLD && MAP_ALLOWED) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1);
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * Decode the bytes into the reusable char buffer of this config.
+     * <p>The returned buffer wraps that array, with the position right
+     * after the last decoded character. A byte order mark is dropped.
+     */
+    private CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException {
+        if (decoder == null) {
+            decoder = Charset.forName(encoding).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        decoder.reset();
+        
+        int capacity = (int) (bytes.remaining() * (double) decoder.averageCharsPerByte()) + 16;
+        if (chars == null || chars.length < capacity) {
+            chars = new char[capacity];
+        }
+        CharBuffer out = CharBuffer.wrap(chars);
+        
+        CoderResult result = decoder.decode(bytes, out, true);
+        while (result.isOverflow()) {
+            out = grow(out);
+            result = decoder.decode(bytes, out, true);
         }
+        if (result.isError()) {
+            result.throwException();
+        }
+        while (decoder.flush(out).isOverflow()) {
+            out = grow(out);
+        }
+        
+        // Drop the byte order mark, if any
+        if (out.position() > 0 && chars[0] == '\uFEFF') {
+            System.arraycopy(chars, 1, chars, 0, out.position() - 1);
+            out.position(out.position() - 1);
+        }
+        return out;
+    }
+    
+    private CharBuffer grow(CharBuffer out) {
+        char[] bigger = new char[chars.length * 2];
+        System.arraycopy(chars, 0, bigger, 0, out.position());
+        CharBuffer result = CharBuffer.wrap(bigger);
+        result.position(out.position());
+        chars = bigger;
+        return result;
     }
     
     /**
@@ -124,6 +454,10 @@ public class SymlConfig extends SymlNode {
      * <p>Any existing data in the file will be erased, such that calling
      * the load(File) method immediately after the save(File) method should
      * yield the exact same SymlConfig, given the same File object.
+     * <p>If the SymlConfig was loaded from its own file, the text of the
+     * nodes that haven't changed since is written exactly as it was read,
+     * comments and formatting included. Only changed nodes are emitted,
+     * and new keys are added after the existing keys of their parent.
      * <p>Note that the internal File object of the SymlConfig is not changed
      * by a call to this method. To change the File object, a call to
      * setFile(File) is required.
@@ -136,23 +470,13 @@ public class SymlConfig extends SymlNode {
         if (file == null) {
             throw new NullPointerException("Cannot save to a null file.");
         }
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
-                return false;
+        synchronized (writeLock) {
+            // Don't let an older pending snapshot overwrite this one
+            PendingWrite p = pending.get();
+            if (p != null && p.file.equals(file)) {
+                pending.compareAndSet(p, null);
             }
-        }
-        SymlEmitter visitor = new SymlEmitter(this);
-        String text = visitor.getText();
-        try {
-            byte[] bytes = text.getBytes(encoding);
-            FileOutputStream fos = new FileOutputStream(file);
-            fos.write(bytes);
-            fos.close();
-            return true;
-        } catch (IOException e) {
-            return false;
+            return write(file, this, encoding, splicer);
         }
     }
     
@@ -161,11 +485,104 @@ public class SymlConfig extends SymlNode {
      * <p>Any existing data in the file will be erased, such that calling
      * the load() method immediately after the save() method should yield
      * the exact same SymlConfig.
+     * <p>If write-behind is enabled, the data is only queued for writing,
+     * and the return value only reflects whether the snapshot was taken.
      * @return true, if the data were successfully saved, false otherwise,
      * e.g. if an error occurred while saving
      * @throws NullPointerException if the File object is null
      */
     public synchronized boolean save() {
-        return save(file);
+        if (writeDelay <= 0) {
+            return save(file);
+        }
+        if (file == null) {
+            throw new NullPointerException("Cannot save to a null file.");
+        }
+        // The snapshot shares the tree, the writer thread emits it later
+        pending.set(new PendingWrite(file, snapshot(), encoding, splicer));
+        
+        // Only schedule a write if there isn't one on the way already
+        if (scheduled.compareAndSet(false, true)) {
+            writer.schedule(new Runnable() {
+                public void run() {
+                    scheduled.set(false);
+                    flush();
+                }
+            }, writeDelay, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+    
+    /**
+     * Stream the node straight into the file, with no in-memory copy.
+     * With a splicer, only the nodes that have changed since the load
+     * are emitted, and the rest is copied from the loaded text.
+     */
+    private boolean write(File file, SymlNode node, String encoding, SymlSplicer splicer) {
+        File tmp = tempFile(file);
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(fos, encoding));
+                if (splicer != null) {
+                    splicer.splice(node.node(), node.getComment(), out);
+                } else {
+                    new SymlEmitter(out).emit(node);
+                }
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            replace(tmp, file);
+            stamp(file);
+            return true;
+        } catch (IOException e) {
+            tmp.delete();
+            return false;
+        }
+    }
+    
+    /**
+     * Remember what the file looks like now, if it is our own file.
+     */
+    private void stamp(File file) {
+        stamp(file, file.lastModified(), file.length());
+    }
+    
+    /**
+     * Remember the given modification time and size, if it is our own
+     * file.
+     */
+    private void stamp(File file, long modified, long length) {
+        if (file.equals(this.file)) {
+            diskModified = modified;
+            diskLength   = length;
+        }
+    }
+    
+    private static File tempFile(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    }
+    
+    static void replace(File tmp, File file) throws IOException {
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static class PendingWrite {
+        private final File file;
+        private final SymlNode snapshot;
+        private final String encoding;
+        private final SymlSplicer splicer;
+        
+        private PendingWrite(File file, SymlNode snapshot, String encoding, SymlSplicer splicer) {
+            this.file     = file;
+            this.snapshot = snapshot;
+            this.encoding = encoding;
+            this.splicer  = splicer;
+        }
     }
 }
@@ -1,62 +1,154 @@
 package garbagemule.util.syml;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.List;
 
 /**
  * The SymlEmitter realizes the {@link SymlVisitor} interface by
- * recursively appending the SYML representations of all the SymlNodes
- * in a tree to a StringBuilder.
- * 
- * <p>The approach requires that a call to the getText() method be made
- * to get the emitted tree. The returned String can then be written
- * directly to a file, which can then be parsed using a {@link SymlLexer}
- * to first generate a {@link TokenStream}, and then a {@link SymlParser}
- * to populate an empty {@link SymlNode} with the data.
- * 
+ * recursively writing the SYML representations of all the SymlNodes
+ * in a tree to a Writer.
+ *
+ * <p>An emitter created with a Writer (or a channel) streams the tree
+ * straight to it through the emit(SymlNode) method, using no more memory
+ * than the depth of the tree requires. An emitter created without one
+ * collects the text in memory, and a call to the getText() method must
+ * be made to get the emitted tree. The returned String can then be
+ * written directly to a file, which can then be parsed using a
+ * {@link SymlLexer} to first generate a {@link TokenStream}, and then a
+ * {@link SymlParser} to populate an empty {@link SymlNode} with the data.
+ *
  * <p>The SymlEmitter is utilized by the {@link SymlConfig} class when
  * saving the tree to disk.
- * 
+ *
  * @author garbagemule
  * @version 0.1
  */
 public class SymlEmitter implements SymlVisitor<Void> {
-    private String indent;
-    private StringBuilder buffy;
+    private static final String INDENT = "    ";
+
+    private Writer out;
+    private StringWriter text;
+    private String[] indents;
+    private int depth;
     private String newline;
-    
+
     /**
-     * Create a new, fresh SymlEmitter. 
+     * Create a new, fresh SymlEmitter.
      */
     public SymlEmitter() {
-        indent = "";
-        buffy = new StringBuilder();
-        newline = "\n";
+        this(new StringWriter());
+        text = (StringWriter) out;
     }
-    
+
     /**
      * Create a new, fresh SymlEmitter and immediately
-     * visit the given SymlNode. 
+     * visit the given SymlNode.
      * @param node the node to visit
      */
     public SymlEmitter(SymlNode node) {
         this();
         node.accept(this);
     }
+
+    /**
+     * Create a new SymlEmitter which writes to the given Writer.
+     * <p>The Writer should be buffered. It is flushed, but not closed,
+     * by the emit(SymlNode) method.
+     * @param out the Writer to write to
+     */
+    public SymlEmitter(Writer out) {
+        this(out, "\n");
+    }
+
+    /**
+     * Create a new SymlEmitter which writes to the given Writer, and ends
+     * its lines with the given line separator, e.g. the one of the file
+     * the tree was loaded from.
+     */
+    SymlEmitter(Writer out, String newline) {
+        this.out = out;
+        this.indents = new String[] { "" };
+        this.depth = 0;
+        this.newline = newline;
+    }
+
+    /**
+     * Create a new SymlEmitter which writes to the given channel through
+     * a buffered encoder for the given charset. Characters that can't be
+     * encoded are replaced.
+     * @param channel the channel to write to
+     * @param charset the charset to encode with
+     */
+    public SymlEmitter(WritableByteChannel channel, Charset charset) {
+        this(new BufferedWriter(Channels.newWriter(channel, charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE), -1)));
+    }
+
+    /**
+     * Write the given node and all of its descendants, and flush.
+     * @param node the node to emit
+     * @throws IOException if the underlying Writer throws one
+     */
+    public void emit(SymlNode node) throws IOException {
+        try {
+            node.accept(this);
+        } catch (EmitException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the given node and all of its descendants, with the node
+     * itself at the given indent. The Writer is not flushed.
+     */
+    void emit(SymlNode node, String indent) throws IOException {
+        indents = new String[] { indent };
+        depth = 0;
+        try {
+            node.accept(this);
+        } catch (EmitException e) {
+            throw e.getCause();
+        }
+    }
     
+    /**
+     * Write only the comment and key line of the given node, at the
+     * given indent. The Writer is not flushed.
+     */
+    void emitHead(SymlNode node, String indent) throws IOException {
+        indents = new String[] { indent };
+        depth = 0;
+        try {
+            appendComment(node.getComment());
+            appendKey(node.getName());
+            newline();
+        } catch (EmitException e) {
+            throw e.getCause();
+        }
+    }
+
     @Override
     public Void visitNode(SymlNode node) {
         appendComment(node.getComment());
-        
+
         if (!node.getName().equals("")) {
-            append(indent + node.getName() + ":");
-        
-            String oldIndent = indent;
-            indent += "    ";
-        
+            appendKey(node.getName());
+            newline();
+
+            depth++;
             for (SymlNode child : node.getChildren()) {
                 child.accept(this);
             }
-            indent = oldIndent;
+            depth--;
         } else {
             for (SymlNode child : node.getChildren()) {
                 child.accept(this);
@@ -68,57 +160,136 @@ public class SymlEmitter implements SymlVisitor<Void> {
     @Override
     public Void visitLeaf(SymlNode node) {
         appendComment(node.getComment());
-        
+
         Object d = node.get();
-        if (d != null) {
-            if (d instanceof List<?>) {
-                append(indent + node.getName() + ":");
-                for (Object o : (List<?>) d) {
-                    append(indent + "- " + o);
-                }
-            } else {
-                append(indent + node.getName() + ": " + d);
+        appendKey(node.getName());
+        if (d instanceof List<?>) {
+            newline();
+            for (Object o : (List<?>) d) {
+                write(indent());
+                write("- ");
+                write(String.valueOf(o));
+                newline();
             }
+        } else if (d != null) {
+            write(" ");
+            write(d.toString());
+            newline();
         } else {
-            append(indent + node.getName() + ":");
+            newline();
         }
         return null;
     }
-    
+
+    /*
+     * Comment lines are separated by '\n'. Empty lines come out as
+     * blank lines, except for trailing ones, which collapse into a single
+     * blank line.
+     */
     private void appendComment(String comment) {
         // Skip null comments
         if (comment == null) {
             return;
         }
-        
-        // If the comment is simply a newline, insert it and quit
-        // This allows us to have linebreaks between nodes
-        if (comment.equals(newline)) {
-            append("");
+
+        // An empty comment is a blank line
+        if (comment.length() == 0) {
+            newline();
             return;
         }
-        
-        // Split into multiple lines
-        for (String part : comment.split(newline)) {
-            // Don't use indents for pure newlines
-            append(part.equals("") ? "" : indent + "#" + part);
+
+        // Find the end of the last non-empty line
+        int end = comment.length();
+        while (end > 0 && comment.charAt(end - 1) == '\n') {
+            end--;
         }
-        
-        // If comment ends in newline, remember it, because split() doesn't!
-        if (comment.endsWith(newline + newline)) {
-            append("");
+
+        // Write each line up to there
+        int start = 0;
+        while (start < end) {
+            int stop = comment.indexOf('\n', start);
+            if (stop == -1 || stop > end) {
+                stop = end;
+            }
+            if (stop > start) {
+                // Don't use indents for pure newlines
+                write(indent());
+                write("#");
+                write(comment, start, stop);
+            }
+            newline();
+            start = stop + 1;
+        }
+
+        // Remember any trailing empty lines (or a lone newline)
+        if (comment.length() - end >= 2 || comment.length() == 1 && end == 0) {
+            newline();
         }
     }
-    
-    private void append(String s) {
-        buffy.append(s).append(newline);
+
+    private void appendKey(String name) {
+        write(indent());
+        write(name);
+        write(":");
     }
-    
+
+    private String indent() {
+        if (depth >= indents.length) {
+            String[] bigger = new String[depth * 2];
+            System.arraycopy(indents, 0, bigger, 0, indents.length);
+            for (int i = indents.length; i < bigger.length; i++) {
+                bigger[i] = bigger[i - 1] + INDENT;
+            }
+            indents = bigger;
+        }
+        return indents[depth];
+    }
+
+    private void newline() {
+        try {
+            out.write(newline);
+        } catch (IOException e) {
+            throw new EmitException(e);
+        }
+    }
+
+    private void write(String s) {
+        write(s, 0, s.length());
+    }
+
+    private void write(String s, int start, int end) {
+        try {
+            out.write(s, start, end - start);
+        } catch (IOException e) {
+            throw new EmitException(e);
+        }
+    }
+
     /**
      * Get the text document generated by the visitor.
      * @return the generated document
+     * @throws IllegalStateException if the emitter writes to a Writer
+     * or channel
      */
     public String getText() {
-        return buffy.toString();
+        if (text == null) {
+            throw new IllegalStateException("The emitter is not collecting text.");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Carries an IOException out of the visitor methods.
+     */
+    @SuppressWarnings("serial")
+    private static class EmitException extends RuntimeException {
+        private EmitException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
     }
 }
@@ -0,0 +1,179 @@
+package garbagemule.util.syml;
+
+/**
+ * The SymlKeys class is a pool of interned keys.
+ *
+ * <p>The same few keys tend to show up all over a document, e.g. "enabled"
+ * or "health" under each of hundreds of entries. The parser, the lazy
+ * scanner and the cache look up the keys of the nodes they create in the
+ * pool of their tree, straight from the characters of the source, so a
+ * key that has been seen before costs no new String, and all the nodes
+ * with the same key share the same instance.
+ *
+ * <p>Keys are made canonical with String.intern(), like the keys of a
+ * {@link SymlPath}, which means that the names of the nodes and the keys
+ * of compiled paths are the same instances, and lookups along a path are
+ * mostly settled by identity. The pool itself is a table in front of the
+ * string pool of the JVM, and every tree has its own by default. Trees
+ * that have a lot of keys in common can share one, e.g. {@link #global()}.
+ *
+ * <p>A pool only ever grows, up to a fixed number of keys, after which
+ * new keys are still interned, just not cached. It is safe for use by
+ * multiple threads, and looking up a key that is in the pool doesn't
+ * lock, so the chunks of a parallel load don't wait for each other.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public final class SymlKeys {
+    private static final int LIMIT = 1 << 16;
+    private static final SymlKeys GLOBAL = new SymlKeys();
+
+    // Lookups read the table without locking. Keys are only ever added,
+    // and a bigger table is filled before it replaces the old one, so a
+    // lookup finds a key, or misses and looks again under the lock
+    private volatile String[] table = new String[64];
+    private int size;
+
+    /**
+     * Get the pool shared by everyone who asks for it.
+     * @return the global pool
+     */
+    public static SymlKeys global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Get the interned instance of the key in the given range of the
+     * given characters, creating it only if the pool doesn't have it.
+     * @param chars the characters
+     * @param start the offset of the first character of the key
+     * @param end the offset after the last character of the key
+     * @return the interned key
+     */
+    public String intern(char[] chars, int start, int end) {
+        // Same as String.hashCode(), which the keys in the table cache
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + chars[i];
+        }
+        String[] table = this.table;
+        String key = table[slot(table, h, chars, start, end)];
+        if (key != null) {
+            return key;
+        }
+        synchronized (this) {
+            table = this.table;
+            int slot = slot(table, h, chars, start, end);
+            key = table[slot];
+            if (key == null) {
+                key = new String(chars, start, end - start).intern();
+                add(slot, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Get the interned instance of the given key.
+     * @param key the key
+     * @return the interned key
+     * @throws NullPointerException if the key is null
+     */
+    public String intern(String key) {
+        int h = key.hashCode();
+        String[] table = this.table;
+        String other = table[slot(table, h, key)];
+        if (other != null) {
+            return other;
+        }
+        synchronized (this) {
+            table = this.table;
+            int slot = slot(table, h, key);
+            other = table[slot];
+            if (other == null) {
+                other = key.intern();
+                add(slot, other);
+            }
+            return other;
+        }
+    }
+
+    /**
+     * Find the slot of the key in the given range of the given characters,
+     * or the empty slot where it goes.
+     */
+    private static int slot(String[] table, int h, char[] chars, int start, int end) {
+        int mask = table.length - 1;
+        int slot = spread(h) & mask;
+        String key;
+        while ((key = table[slot]) != null) {
+            if (key.hashCode() == h && matches(key, chars, start, end)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Find the slot of the given key, or the empty slot where it goes.
+     */
+    private static int slot(String[] table, int h, String key) {
+        int mask = table.length - 1;
+        int slot = spread(h) & mask;
+        String other;
+        while ((other = table[slot]) != null) {
+            if (other == key || (other.hashCode() == h && other.equals(key))) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Get the number of keys in the pool.
+     * @return the number of keys
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void add(int slot, String key) {
+        if (size == LIMIT) {
+            return;
+        }
+        String[] old = table;
+        old[slot] = key;
+        if (++size * 2 > old.length) {
+            String[] bigger = new String[old.length * 2];
+            int mask = bigger.length - 1;
+            for (String s : old) {
+                if (s == null) continue;
+                int i = spread(s.hashCode()) & mask;
+                while (bigger[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                bigger[i] = s;
+            }
+            table = bigger;
+        }
+    }
+
+    private static boolean matches(String key, char[] chars, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
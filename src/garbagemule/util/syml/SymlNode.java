@@ -1,12 +1,16 @@
 package garbagemule.util.syml;
 
+import garbagemule.util.syml.parser.NodeAccess;
+
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -16,15 +20,71 @@ import java.util.Set;
  * <p>Provided are methods for creating and manipulating nodes and their
  * associated comments, and children or data values. 
  * 
+ * <p>A SymlNode is a handle: the contents of a tree are kept in internal
+ * nodes which are never changed once anyone has read them. A write copies
+ * the nodes on the path from the root down to the node being written, and
+ * leaves the rest of the tree shared with the previous version, so a
+ * reader always sees a complete version of the tree. Reads don't lock,
+ * except for the first read after a write. Writes lock the root handle,
+ * which means that the synchronized methods of {@link SymlConfig} are
+ * atomic with respect to other writers.
+ * 
+ * <p>Because versions share everything but the changed paths, holding on
+ * to an old version is cheap. The snapshot() method returns a read-only
+ * SymlNode for the current version in constant time, e.g. for emitting
+ * on another thread, comparing against a later version, or undoing.
+ * 
  * @author garbagemule
  * @version 0.1
  */
 public class SymlNode {
-    private String name;
-    private Object data;
-    private String comment;
-    private SymlNode parent;
-    private Map<String,SymlNode> children;
+    private final String name;
+    private final SymlNode parent;
+    
+    /**
+     * The handle which holds the tree, or null for snapshot handles.
+     */
+    private final SymlNode root;
+    
+    /**
+     * The node of a snapshot handle, or null for live handles.
+     */
+    private final Node pinned;
+    
+    /**
+     * The comment of a snapshot handle, or of the node of a root handle.
+     * The comments of all other nodes are kept by their parents.
+     */
+    private volatile String comment;
+    
+    /*
+     * Only used by root handles. Nodes owned by the current epoch haven't
+     * been seen by any reader yet, and can be written in place. A reader
+     * freezes the tree, which makes the next write start a new epoch.
+     */
+    private volatile Node value;
+    private volatile boolean frozen;
+    private Object epoch;
+    private volatile SymlKeys keys;
+    
+    static {
+        NodeAccess.register(new NodeAccess() {
+            @Override
+            protected void setSourceOffset(SymlNode node, int offset) {
+                node.setSourceOffset(offset);
+            }
+            
+            @Override
+            protected Object peek(SymlNode node) {
+                return node.peek();
+            }
+            
+            @Override
+            protected void scatter(SymlNode node) {
+                node.scatter();
+            }
+        });
+    }
 
     /**
      * Create a new SymlNode with the given name.
@@ -37,7 +97,33 @@ public class SymlNode {
         if (name.contains(".")) {
             throw new IllegalArgumentException("Name cannot contain periods.");
         }
-        this.name = name;
+        this.name   = name;
+        this.parent = null;
+        this.root   = this;
+        this.pinned = null;
+        this.epoch  = new Object();
+        this.value  = new Node(name, epoch);
+    }
+    
+    /**
+     * Create a live handle for a child of the given handle.
+     */
+    private SymlNode(SymlNode parent, String name) {
+        this.name   = name;
+        this.parent = parent;
+        this.root   = parent.root;
+        this.pinned = null;
+    }
+    
+    /**
+     * Create a snapshot handle for the given node.
+     */
+    private SymlNode(SymlNode parent, Node node, String comment) {
+        this.name    = node.name;
+        this.parent  = parent;
+        this.root    = null;
+        this.pinned  = node;
+        this.comment = comment;
     }
 
     /**
@@ -52,9 +138,63 @@ public class SymlNode {
      * Set the comment of this node.
      * <p>For multiline comments, use linebreak characters ("\n").
      * @param comment the comment string
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
      */
     public void setComment(String comment) {
-        this.comment = comment;
+        synchronized (tree()) {
+            if (parent == null) {
+                this.comment = comment;
+                return;
+            }
+            edit();
+            Node node = parent.edit();
+            node.children.setComment(node.children.indexOf(name), comment);
+        }
+    }
+
+    /**
+     * Set the offset in the source text where this node starts, i.e. the
+     * first line of its comment, or its key if it has no comment.
+     * <p>The parser calls this through {@link NodeAccess}, such that a
+     * {@link SymlConfig} can save nodes that haven't changed since they
+     * were loaded by copying their text instead of emitting them. The
+     * parser calls it again for a key that appears more than once, and as
+     * the text of such a node is in more than one place, the node ends up
+     * with no offset at all.
+     */
+    private void setSourceOffset(int offset) {
+        synchronized (tree()) {
+            Node node = edit();
+            node.start = (node.start == -1 ? offset : Node.SCATTERED);
+        }
+    }
+
+    /**
+     * Get the data value of this node, like get(), but without keeping
+     * the current version of the tree from being written in place.
+     * <p>The parser calls this through {@link NodeAccess} to find out what
+     * a key that appears more than once already holds, as get() would make
+     * every later change to the tree copy the nodes it changes.
+     */
+    private Object peek() {
+        synchronized (tree()) {
+            Node node = locate(root.value);
+            return (node != null ? node.value() : null);
+        }
+    }
+
+    /**
+     * Mark this node as having its text in more than one place, such that
+     * saves emit its parent instead of copying the text of its children.
+     * <p>The parser calls this through {@link NodeAccess} for the nodes
+     * that keys with periods in them run through, as the text of the last
+     * node isn't where the others are.
+     */
+    private void scatter() {
+        synchronized (tree()) {
+            edit().start = Node.SCATTERED;
+        }
     }
 
     /**
@@ -63,7 +203,12 @@ public class SymlNode {
      * @return the comment of this node
      */
     public String getComment() {
-        return comment;
+        if (pinned != null || parent == null) {
+            return comment;
+        }
+        Node node = parent.node();
+        Children children = (node != null ? node.children() : null);
+        return (children != null ? children.comment(name) : null);
     }
 
     /**
@@ -72,12 +217,14 @@ public class SymlNode {
      * or a parent (no data, may have children), and this is guaranteed
      * by the following:
      * <ul>
-     * <li>If the given object is a SymlNode or an instance thereof, it
-     * will be inserted as a child of this node, nulling any pre-existing
-     * data value. If this SymlNode exists as a descendant of the given
-     * node, an IllegalStateException is thrown.
+     * <li>If the given object is a SymlNode or an instance thereof, a
+     * copy of it will be inserted as a child of this node, nulling any
+     * pre-existing data value. Later changes to the given SymlNode do
+     * not affect the copy. If this SymlNode exists as a descendant of
+     * the given node, an IllegalStateException is thrown.
      * <li>If the object is not a SymlNode or an instance thereof, any
-     * pre-existing children will be unlinked.
+     * pre-existing children will be unlinked. A List is copied, so later
+     * changes to the given List do not affect the node.
      * </ul> 
      * <p>Note that if the object is a numeric type (int, long, double)
      * or a boolean, it will still be possible to get a String value
@@ -87,17 +234,94 @@ public class SymlNode {
      * @param data a data object (or SymlNode child)
      * @throws IllegalStateException if the given object is a SymlNode,
      * and this SymlNode is a descendant of the given SymlNode.
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
      */
     public void set(Object data) {
         if (data instanceof SymlNode) {
-            SymlNode node = (SymlNode) data;
-            if (isDescendantOf(node)) {
+            SymlNode other = (SymlNode) data;
+            if (isDescendantOf(other)) {
                 throw new IllegalStateException("Cycle detected!");
             }
-            addChild(node);
+            // Nodes that have been read are never changed, so just share it
+            Node node = other.node();
+            if (node == null) {
+                node = new Node(other.name, null);
+            }
+            String comment = other.getComment();
+            synchronized (tree()) {
+                addChild(edit(), node, comment);
+            }
         } else {
-            convertToLeaf();
-            this.data = data;
+            synchronized (tree()) {
+                Node node = edit();
+                node.children = null;
+                node.setValue(data);
+            }
+        }
+    }
+    
+    /**
+     * Set the data value of this node to the given boolean.
+     * <p>This is the same as set(Object) with a Boolean, but the value is
+     * stored as is, rather than boxed.
+     * @param value the value
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public void setBoolean(boolean value) {
+        synchronized (tree()) {
+            Node node = edit();
+            node.children = null;
+            node.setPrimitive(Node.BOOLEAN, value ? 1 : 0);
+        }
+    }
+    
+    /**
+     * Set the data value of this node to the given int.
+     * <p>This is the same as set(Object) with an Integer, but the value is
+     * stored as is, rather than boxed.
+     * @param value the value
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public void setInt(int value) {
+        synchronized (tree()) {
+            Node node = edit();
+            node.children = null;
+            node.setPrimitive(Node.INT, value);
+        }
+    }
+    
+    /**
+     * Set the data value of this node to the given long.
+     * <p>This is the same as set(Object) with a Long, but the value is
+     * stored as is, rather than boxed.
+     * @param value the value
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public void setLong(long value) {
+        synchronized (tree()) {
+            Node node = edit();
+            node.children = null;
+            node.setPrimitive(Node.LONG, value);
+        }
+    }
+    
+    /**
+     * Set the data value of this node to the given double.
+     * <p>This is the same as set(Object) with a Double, but the value is
+     * stored as is, rather than boxed.
+     * @param value the value
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public void setDouble(double value) {
+        synchronized (tree()) {
+            Node node = edit();
+            node.children = null;
+            node.setPrimitive(Node.DOUBLE, Double.doubleToLongBits(value));
         }
     }
 
@@ -114,25 +338,50 @@ public class SymlNode {
      * @throws NullPointerException if the key is null
      * @throws IllegalStateException if the given object is a SymlNode,
      * and this SymlNode is a descendant of the given SymlNode.
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
      */
     public void set(String key, Object data) {
-        if (data != null) {
-            SymlNode node = createChild(key);
-            node.set(data);
-        } else {
-            SymlNode node = getChild(key);
-            if (node != null) {
-                node.parent.removeChild(node.getName());
+        synchronized (tree()) {
+            if (data != null) {
+                createChild(key).set(data);
+            } else {
+                remove(handle(key));
+            }
+        }
+    }
+    
+    /**
+     * Set the data value of the child node at the given path, creating
+     * the child if it doesn't exist, or removing it if the value is null.
+     * <p>This is the same as set(String, Object) with a compiled path.
+     * @param path the path of the child node to set the data for
+     * @param data a data object (or SymlNode child)
+     * @throws NullPointerException if the path is null
+     * @throws IllegalStateException if the given object is a SymlNode,
+     * and this SymlNode is a descendant of the given SymlNode.
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public void set(SymlPath path, Object data) {
+        synchronized (tree()) {
+            if (data != null) {
+                createChild(path).set(data);
+            } else {
+                remove(handle(path));
             }
         }
     }
     
     /**
      * Get the data value of this node.
+     * <p>Lists are returned as unmodifiable views, as the list belongs to
+     * the node, and to any snapshots that share it.
      * @return the data value of this node, may be null
      */
     public Object get() {
-        return data;
+        Node node = node();
+        return (node != null ? node.value() : null);
     }
     
     /**
@@ -144,11 +393,25 @@ public class SymlNode {
      * does not exist, may be null
      */
     public Object get(String key) {
-        SymlNode node = getChild(key);
+        Node node = find(key);
         if (node == null) {
             return null;
         }
-        return node.get();
+        return node.value();
+    }
+
+    /**
+     * Get the data value of the child node at the given path.
+     * @param path the path of the child node to get the data for
+     * @return the data value of the child node, or null if the child
+     * does not exist, may be null
+     */
+    public Object get(SymlPath path) {
+        Node node = find(path);
+        if (node == null) {
+            return null;
+        }
+        return node.value();
     }
     
     /**
@@ -158,10 +421,7 @@ public class SymlNode {
      * @return the boolean data value of this node, or def
      */
     public boolean getBoolean(boolean def) {
-        if (data != null && data instanceof Boolean) {
-            return ((Boolean) data).booleanValue();
-        }
-        return def;
+        return booleanOf(node(), def);
     }
     
     /**
@@ -174,11 +434,18 @@ public class SymlNode {
      * @return the boolean data value of the child, or def
      */
     public boolean getBoolean(String key, boolean def) {
-        SymlNode node = getChild(key);
-        if (node != null) {
-            return node.getBoolean(def);
-        }
-        return def;
+        return booleanOf(find(key), def);
+    }
+
+    /**
+     * Get the boolean data value of the node at the given path.
+     * @param path the path of the child to get the value from
+     * @param def the value to return, if the child does not exist, or
+     * the data is null or non-boolean
+     * @return the boolean data value of the child, or def
+     */
+    public boolean getBoolean(SymlPath path, boolean def) {
+        return booleanOf(find(path), def);
     }
     
     /**
@@ -201,10 +468,7 @@ public class SymlNode {
      * @return the int data value of this node, or def
      */
     public int getInt(int def) {
-        if (data != null && data instanceof Number) {
-            return ((Number) data).intValue();
-        }
-        return def;
+        return intOf(node(), def);
     }
     
     /**
@@ -219,11 +483,18 @@ public class SymlNode {
      * @return the int data value of the child, or def
      */
     public int getInt(String key, int def) {
-        SymlNode node = getChild(key);
-        if (node != null) {
-            return node.getInt(def);
-        }
-        return def;
+        return intOf(find(key), def);
+    }
+
+    /**
+     * Get the int data value of the node at the given path.
+     * @param path the path of the child to get the value from
+     * @param def the value to return, if the child does not exist, or
+     * the data is null or non-numeric
+     * @return the int data value of the child, or def
+     */
+    public int getInt(SymlPath path, int def) {
+        return intOf(find(path), def);
     }
     
     /**
@@ -248,10 +519,7 @@ public class SymlNode {
      * @return the long data value of this node, or def
      */
     public long getLong(long def) {
-        if (data != null && data instanceof Number) {
-            return ((Number) data).longValue();
-        }
-        return def;
+        return longOf(node(), def);
     }
     
     /**
@@ -266,11 +534,18 @@ public class SymlNode {
      * @return the long data value of the child, or def
      */
     public long getLong(String key, long def) {
-        SymlNode node = getChild(key);
-        if (node != null) {
-            return node.getLong(def);
-        }
-        return def;
+        return longOf(find(key), def);
+    }
+
+    /**
+     * Get the long data value of the node at the given path.
+     * @param path the path of the child to get the value from
+     * @param def the value to return, if the child does not exist, or
+     * the data is null or non-numeric
+     * @return the long data value of the child, or def
+     */
+    public long getLong(SymlPath path, long def) {
+        return longOf(find(path), def);
     }
     
     /**
@@ -293,10 +568,7 @@ public class SymlNode {
      * @return the boolean data value of this node, or def
      */
     public double getDouble(double def) {
-        if (data != null && data instanceof Number) {
-            return ((Number) data).doubleValue();
-        }
-        return def;
+        return doubleOf(node(), def);
     }
     
     /**
@@ -311,11 +583,18 @@ public class SymlNode {
      * @return the double data value of the child, or def
      */
     public double getDouble(String key, double def) {
-        SymlNode node = getChild(key);
-        if (node != null) {
-            return node.getDouble(def);
-        }
-        return def;
+        return doubleOf(find(key), def);
+    }
+
+    /**
+     * Get the double data value of the node at the given path.
+     * @param path the path of the child to get the value from
+     * @param def the value to return, if the child does not exist, or
+     * the data is null or non-numeric
+     * @return the double data value of the child, or def
+     */
+    public double getDouble(SymlPath path, double def) {
+        return doubleOf(find(path), def);
     }
 
     /**
@@ -341,7 +620,7 @@ public class SymlNode {
      * @return the String data value of this node, or def
      */
     public String getString(String def) {
-        return (data != null ? data.toString() : def.toString());
+        return stringOf(node(), def);
     }
 
     /**
@@ -357,11 +636,18 @@ public class SymlNode {
      * @return the String data value of the child, or def
      */
     public String getString(String key, String def) {
-        SymlNode node = getChild(key);
-        if (node != null) {
-            return node.getString(def);
-        }
-        return def;
+        return stringOf(find(key), def);
+    }
+
+    /**
+     * Get the String data value of the node at the given path.
+     * @param path the path of the child to get the value from
+     * @param def the value to return, if the child does not exist,
+     * or the data is null
+     * @return the String data value of the child, or def
+     */
+    public String getString(SymlPath path, String def) {
+        return stringOf(find(path), def);
     }
 
     /**
@@ -375,15 +661,7 @@ public class SymlNode {
      * @return the String list data value of this node, or def
      */
     public List<String> getStringList(List<String> def) {
-        if (data != null && data instanceof List<?>) {
-            List<?> list = (List<?>) data;
-            List<String> result = new ArrayList<String>();
-            for (Object o : list) {
-                result.add(String.valueOf(o));
-            }
-            return result;
-        }
-        return def;
+        return stringListOf(node(), def);
     }
 
     /**
@@ -400,21 +678,29 @@ public class SymlNode {
      * @return the String list data value of this node, or def
      */
     public List<String> getStringList(String key, List<String> def) {
-        SymlNode node = getChild(key);
-        if (node != null) {
-            return node.getStringList(def);
-        }
-        return def;
+        return stringListOf(find(key), def);
+    }
+
+    /**
+     * Get the String list data value of the node at the given path.
+     * @param path the path of the child to get the value from
+     * @param def the value to return, if the child does not exist, or the
+     * data is null or not a list
+     * @return the String list data value of this node, or def
+     */
+    public List<String> getStringList(SymlPath path, List<String> def) {
+        return stringListOf(find(path), def);
     }
 
     /**
      * Get a set of the names of all children of this node, or an empty
      * set if the node has no children.
-     * <p>Note that the set is a copy of the data, not a direct reference.
+     * <p>Note that the set is a read-only view of the current version of
+     * the node, and does not change when the node is changed.
      * @return a set of key names for this node's children, or null
      */
     public Set<String> getKeys() {
-        return (children != null ? children.keySet() : new HashSet<String>());
+        return keysOf(node());
     }
     
     /**
@@ -424,9 +710,23 @@ public class SymlNode {
      * @return a set of key names for the given child, or null
      */
     public Set<String> getKeys(String key) {
-        SymlNode node = getChild(key);
+        Node node = find(key);
         if (node != null) {
-            return node.getKeys();
+            return keysOf(node);
+        }
+        return null;
+    }
+
+    /**
+     * Get a set of the names of all children of the node at the given
+     * path, or null if the child does not exist.
+     * @param path the path of the child to get the keys from
+     * @return a set of key names for the given child, or null
+     */
+    public Set<String> getKeys(SymlPath path) {
+        Node node = find(path);
+        if (node != null) {
+            return keysOf(node);
         }
         return null;
     }
@@ -444,6 +744,33 @@ public class SymlNode {
         return parent.getRoot();
     }
     
+    /**
+     * Get the pool that the keys of the nodes of this tree are interned
+     * in. Every tree has a pool of its own, unless it is given one.
+     * @return the key pool of the tree
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public SymlKeys getKeyPool() {
+        return tree().keys();
+    }
+    
+    /**
+     * Set the pool that the keys of the nodes of this tree are interned
+     * in from now on, e.g. to share one pool between many trees with the
+     * same keys. The keys of existing nodes stay as they are.
+     * @param keys the key pool
+     * @throws NullPointerException if the pool is null
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public void setKeyPool(SymlKeys keys) {
+        if (keys == null) {
+            throw new NullPointerException("The key pool cannot be null.");
+        }
+        tree().keys = keys;
+    }
+    
     /**
      * Get the parent of this SymlNode.
      * @return the parent of this node, may be null
@@ -458,7 +785,22 @@ public class SymlNode {
      * @return the child with the given name, or null
      */
     public SymlNode getChild(String key) {
-        return getNode(key, false);
+        if (find(key) == null) {
+            return null;
+        }
+        return handle(key);
+    }
+
+    /**
+     * Get the child at the given path.
+     * @param path the path of the child to look for
+     * @return the child at the given path, or null
+     */
+    public SymlNode getChild(SymlPath path) {
+        if (find(path) == null) {
+            return null;
+        }
+        return handle(path);
     }
 
     /**
@@ -466,119 +808,322 @@ public class SymlNode {
      * if it doesn't exist.
      * @param key the name of the child to look for
      * @return the child with the given name
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
      */
     public SymlNode createChild(String key) {
-        return getNode(key, true);
+        synchronized (tree()) {
+            SymlNode child = handle(key);
+            child.edit();
+            return child;
+        }
+    }
+
+    /**
+     * Get the child at the given path, or create it (and any missing
+     * nodes along the way) if it doesn't exist.
+     * @param path the path of the child to look for
+     * @return the child at the given path
+     * @throws UnsupportedOperationException if this node is part of
+     * a snapshot
+     */
+    public SymlNode createChild(SymlPath path) {
+        synchronized (tree()) {
+            SymlNode child = handle(path);
+            child.edit();
+            return child;
+        }
     }
     
     /**
      * Get an unmodifiable collection of the children of this node,
      * or null if the node has no children.
+     * <p>The children of a snapshot are snapshots as well.
      * @return a collection of children, or null
      */
     public Collection<SymlNode> getChildren() {
+        Node node = node();
+        Children children = (node != null ? node.children() : null);
         if (children == null) {
             return null;
         }
-        return Collections.unmodifiableCollection(children.values());
+        List<SymlNode> result = new ArrayList<SymlNode>(children.size());
+        for (int i = 0; i < children.size(); i++) {
+            Node child = children.at(i);
+            result.add(pinned != null ? new SymlNode(this, child, children.commentAt(i)) : new SymlNode(this, child.name));
+        }
+        return Collections.unmodifiableList(result);
     }
     
-    private SymlNode getNode(String key, boolean create) {
+    /**
+     * Take a read-only snapshot of this node and its descendants.
+     * <p>The snapshot shares all of its contents with the tree, so this
+     * takes constant time and memory. Later changes to the tree copy the
+     * parts they change, and never show up in the snapshot.
+     * @return a read-only snapshot of this node
+     */
+    public SymlNode snapshot() {
+        if (pinned != null) {
+            return this;
+        }
+        Node node = node();
+        return new SymlNode(null, node != null ? node : new Node(name, null), getComment());
+    }
+    
+    /**
+     * Check if this node is part of a snapshot.
+     * <p>Snapshots are read-only, and throw UnsupportedOperationExceptions
+     * from all methods that would change them.
+     * @return true, if this node is part of a snapshot, false otherwise
+     */
+    public boolean isSnapshot() {
+        return pinned != null;
+    }
+    
+    /**
+     * Get the current node of this handle, or null if it doesn't exist.
+     */
+    Node node() {
+        if (pinned != null) {
+            return pinned;
+        }
+        return locate(root.freeze());
+    }
+    
+    /**
+     * Get a snapshot handle for the given node.
+     */
+    static SymlNode pin(Node node, String comment) {
+        return new SymlNode(null, node, comment);
+    }
+    
+    /**
+     * Root handles only: replace the whole tree with the given node. The
+     * node must not be reachable from anywhere else, and it is never
+     * written in place, so it has to be built before it is installed.
+     */
+    void install(Node node) {
+        synchronized (tree()) {
+            value  = node;
+            frozen = true;
+        }
+    }
+    
+    private Node locate(Node top) {
+        if (parent == null) {
+            return top;
+        }
+        Node node = parent.locate(top);
+        Children children = (node != null ? node.children() : null);
         if (children == null) {
-            if (create) {
-                convertToNode(); // Note: Removes any current data objects!
-            } else {
+            return null;
+        }
+        return children.get(name);
+    }
+    
+    private Node find(String key) {
+        Node node = node();
+        int start = 0;
+        while (node != null) {
+            Children children = node.children();
+            if (children == null) {
                 return null;
             }
-        }
-        
-        // Grab the first dot
-        int dot = key.indexOf('.');
-        
-        // End of the line?
-        if (dot == -1) {
-            SymlNode node = children.get(key);
-            if (node == null && create) {
-                node = addChild(key);
+            int dot = key.indexOf('.', start);
+            if (dot == -1) {
+                return (start == 0 ? children.get(key) : children.get(key, start, key.length()));
             }
-            return node;
+            node = children.get(key, start, dot);
+            start = dot + 1;
         }
-        
-        // Otherwise, split and recursively call
-        String first = key.substring(0, dot);
-        SymlNode node = children.get(first);
-        if (node == null) {
-            if (create) {
-                node = addChild(first);
-            } else {
+        return null;
+    }
+    
+    private Node find(SymlPath path) {
+        Node node = node();
+        for (int i = 0; i < path.length() && node != null; i++) {
+            Children children = node.children();
+            if (children == null) {
                 return null;
             }
+            node = children.get(path.get(i));
         }
-        return node.getNode(key.substring(dot + 1), create);
+        return node;
     }
     
-    private SymlNode addChild(String name) {
-        return addChild(new SymlNode(name));
+    /**
+     * Get a handle for the given key, whether it exists or not.
+     */
+    private SymlNode handle(String key) {
+        SymlNode handle = this;
+        int start = 0;
+        int dot;
+        while ((dot = key.indexOf('.', start)) != -1) {
+            handle = handle.child(key.substring(start, dot));
+            start = dot + 1;
+        }
+        return handle.child(start == 0 ? key : key.substring(start));
     }
     
-    private SymlNode addChild(SymlNode node) {
-        convertToNode(); // Note: Removes any current data objects!
-        
-        // The empty string means a root node, so add its children
-        if (node.name.equals("")) {
-            if (node.children == null) {
-                return null;
+    private SymlNode handle(SymlPath path) {
+        SymlNode handle = this;
+        for (int i = 0; i < path.length(); i++) {
+            handle = handle.child(path.get(i));
+        }
+        return handle;
+    }
+    
+    private SymlNode child(String key) {
+        if (pinned == null) {
+            return new SymlNode(this, key);
+        }
+        Children children = pinned.children();
+        int i = (children != null ? children.indexOf(key) : -1);
+        if (i < 0) {
+            return new SymlNode(this, new Node(key, null), null);
+        }
+        return new SymlNode(this, children.at(i), children.commentAt(i));
+    }
+    
+    /**
+     * Get the lock of the tree, which must be held while writing.
+     */
+    private SymlNode tree() {
+        if (root == null) {
+            throw new UnsupportedOperationException("Snapshots are read-only.");
+        }
+        return root;
+    }
+    
+    /**
+     * Root handles only: get the current root node, and make sure that
+     * nothing reachable from it is written in place from now on.
+     */
+    private Node freeze() {
+        Node top = value;
+        if (!frozen) {
+            synchronized (this) {
+                frozen = true;
+                top = value;
             }
-            for (SymlNode child : node.children.values()) {
-                // Only add children that don't already exist
-                if (!children.containsKey(child.getName())) {
-                    addChild(child);
+        }
+        return top;
+    }
+    
+    /**
+     * Get a writable node for this handle, creating it (and any missing
+     * nodes along the way) if it doesn't exist. Frozen nodes on the way
+     * are replaced by copies. The tree lock must be held.
+     */
+    private Node edit() {
+        if (parent == null) {
+            return root.thaw();
+        }
+        Node node = parent.edit();
+        if (node.children == null) {
+            node.children = new Children();
+            node.setValue(null);
+        }
+        int i = node.children.indexOf(name);
+        if (i < 0) {
+            Node child = new Node(root.keys().intern(name), root.epoch);
+            node.children.add(child, null);
+            return child;
+        }
+        Node child = node.children.at(i);
+        if (child.owner != root.epoch) {
+            child = child.copy(root.epoch);
+            node.children.set(i, child);
+        }
+        return child;
+    }
+    
+    /**
+     * Root handles only: get a writable root node.
+     */
+    private Node thaw() {
+        if (frozen) {
+            epoch  = new Object();
+            frozen = false;
+        }
+        Node top = value;
+        if (top.owner != epoch) {
+            top = top.copy(epoch);
+            value = top;
+        }
+        return top;
+    }
+    
+    /**
+     * Root handles only: get the key pool, creating it if needed.
+     */
+    private SymlKeys keys() {
+        SymlKeys pool = keys;
+        if (pool == null) {
+            synchronized (this) {
+                if (keys == null) {
+                    keys = new SymlKeys();
                 }
+                pool = keys;
             }
-            return this;
         }
-        node.parent = this;
-        children.put(node.name, node);
-        return node;
+        return pool;
     }
     
-    private SymlNode removeChild(String key) {
-        if (children != null) {
-            SymlNode child = children.remove(key);
-            if (child != null) {
-                child.parent = null;
+    private void addChild(Node node, Node child, String comment) {
+        if (node.children == null) {
+            node.children = new Children();
+            node.setValue(null);
+        }
+        
+        // The empty string means a root node, so add its children
+        if (child.name.equals("")) {
+            Children grandchildren = child.children();
+            if (grandchildren == null) {
+                return;
             }
-            if (children.isEmpty()) {
-                convertToLeaf();
+            for (int i = 0; i < grandchildren.size(); i++) {
+                Node grandchild = grandchildren.at(i);
+                // Only add children that don't already exist
+                if (!node.children.containsKey(grandchild.name)) {
+                    node.children.add(grandchild, grandchildren.commentAt(i));
+                }
             }
-            return child;
+            return;
         }
-        return null;
+        node.children.put(child, comment);
     }
     
-    private boolean isDescendantOf(SymlNode node) {
-        if (this.equals(node)) return true;
-        if (parent == null) return false;
-        return parent.isDescendantOf(node);
+    private void remove(SymlNode handle) {
+        if (handle.locate(root.value) == null) {
+            return;
+        }
+        Node node = handle.parent.edit();
+        node.children.remove(handle.name);
+        if (node.children.isEmpty()) {
+            node.children = null;
+        }
     }
     
-    private void convertToNode() {
-        if (children == null) {
-            // LinkedHashMap preserves document order
-            children = new LinkedHashMap<String,SymlNode>();
-            data = null;
+    private boolean isDescendantOf(SymlNode node) {
+        for (SymlNode handle = this; handle != null; handle = handle.parent) {
+            if (handle.isSameAs(node)) return true;
         }
+        return false;
     }
     
-    private void convertToLeaf() {
-        if (children != null) {
-            // Do some proper cleanup
-            for (SymlNode child : children.values()) {
-                child.parent = null;
-            }
-            children.clear();
-            children = null;
+    private boolean isSameAs(SymlNode other) {
+        if (this == other) return true;
+        if (root == null || root != other.root) return false;
+        
+        SymlNode a = this;
+        SymlNode b = other;
+        while (a != null && b != null) {
+            if (!a.name.equals(b.name)) return false;
+            a = a.parent;
+            b = b.parent;
         }
+        return a == null && b == null;
     }
     
     /**
@@ -586,15 +1131,19 @@ public class SymlNode {
      * <p>If this node has children, the visitNode(SymlNode) method on
      * the SymlVisitor will be called, otherwise visitLeaf(SymlNode)
      * is called.
+     * <p>The visitor is given a read-only snapshot of this node, so it
+     * sees the tree as it was when this method was called, even if other
+     * threads change it in the meantime.
      * @param visitor a SymlVisitor, may not be null
      * @return whatever the callback to the given visitor method returns
      * @throws NullPointerException if the visitor is null
      */
     public <T> T accept(SymlVisitor<T> visitor) {
-        if (children != null) {
-            return visitor.visitNode(this);
+        SymlNode snapshot = snapshot();
+        if (snapshot.pinned.children() != null) {
+            return visitor.visitNode(snapshot);
         }
-        return visitor.visitLeaf(this);
+        return visitor.visitLeaf(snapshot);
     }
     
     @Override
@@ -607,31 +1156,592 @@ public class SymlNode {
         if (this == o) return true;
         if (!(o instanceof SymlNode)) return false;
         
-        SymlNode other = (SymlNode) o;
-        
-        if (data != null && other.data != null) {
-            return data.equals(other.data);
-        }
-        
-        if (children != null && other.children != null) {
-            return children.equals(other.children);
-        }
-        
-        return false;
+        Node node = node();
+        return node != null && node.equals(((SymlNode) o).node());
     }
     
     @Override
     public String toString() {
+        Node node = node();
         StringBuilder buffy = new StringBuilder();
         buffy.append("Node[name='" + name + "'");
         
-        if (data != null) {
-            buffy.append(",data='").append(data).append("']");
-        } else if (children != null) {
-            buffy.append(",children=").append(children.size()).append("]");
+        if (node != null && node.hasValue()) {
+            buffy.append(",data='").append(node.value()).append("']");
+        } else if (node != null && node.children() != null) {
+            buffy.append(",children=").append(node.children().size()).append("]");
         } else {
             buffy.append("]");
         }
         return buffy.toString();
     }
+    
+    private static boolean booleanOf(Node node, boolean def) {
+        if (node == null) {
+            return def;
+        }
+        if (node.type == Node.BOOLEAN) {
+            return node.bits != 0;
+        }
+        return def;
+    }
+    
+    private static int intOf(Node node, int def) {
+        if (node == null) {
+            return def;
+        }
+        switch (node.type) {
+            case Node.INT:
+            case Node.LONG:   return (int) node.bits;
+            case Node.DOUBLE: return (int) Double.longBitsToDouble(node.bits);
+        }
+        if (node.data instanceof Number) {
+            return ((Number) node.data).intValue();
+        }
+        return def;
+    }
+    
+    private static long longOf(Node node, long def) {
+        if (node == null) {
+            return def;
+        }
+        switch (node.type) {
+            case Node.INT:
+            case Node.LONG:   return node.bits;
+            case Node.DOUBLE: return (long) Double.longBitsToDouble(node.bits);
+        }
+        if (node.data instanceof Number) {
+            return ((Number) node.data).longValue();
+        }
+        return def;
+    }
+    
+    private static double doubleOf(Node node, double def) {
+        if (node == null) {
+            return def;
+        }
+        switch (node.type) {
+            case Node.INT:
+            case Node.LONG:   return node.bits;
+            case Node.DOUBLE: return Double.longBitsToDouble(node.bits);
+        }
+        if (node.data instanceof Number) {
+            return ((Number) node.data).doubleValue();
+        }
+        return def;
+    }
+    
+    private static String stringOf(Node node, String def) {
+        Object data = (node != null ? node.value() : null);
+        return (data != null ? data.toString() : def.toString());
+    }
+    
+    private static List<String> stringListOf(Node node, List<String> def) {
+        Object data = (node != null ? node.data : null);
+        if (data instanceof List<?>) {
+            List<?> list = (List<?>) data;
+            List<String> result = new ArrayList<String>();
+            for (Object o : list) {
+                result.add(String.valueOf(o));
+            }
+            return result;
+        }
+        return def;
+    }
+    
+    private static Set<String> keysOf(Node node) {
+        Children children = (node != null ? node.children() : null);
+        if (children == null) {
+            return new HashSet<String>();
+        }
+        return children.keys();
+    }
+    
+    /**
+     * The contents of a node. Nodes are shared between the versions of a
+     * tree, so a node may only be changed by the epoch that owns it.
+     * <p>The children of a node that was loaded lazily are scanned from
+     * the source text on first access, so they must be read through the
+     * children() method. Nodes owned by an epoch are always scanned, as
+     * they are either new or copies.
+     */
+    static final class Node {
+        // Types of values
+        static final byte OBJECT  = 0;
+        static final byte BOOLEAN = 1;
+        static final byte INT     = 2;
+        static final byte LONG    = 3;
+        static final byte DOUBLE  = 4;
+        
+        // The start of a node whose text is in more than one place
+        static final int SCATTERED = -2;
+        
+        final String name;
+        final Object owner;
+        
+        /*
+         * Booleans and numbers are kept unboxed in bits, doubles as their
+         * long bits, and everything else is kept in data.
+         */
+        Object data;
+        byte type;
+        long bits;
+        
+        Children children;
+        
+        /**
+         * Offset of the node in the text it was parsed from, -1 if it
+         * wasn't parsed, or SCATTERED if its key appears more than once,
+         * or it is part of a key with periods in it.
+         */
+        int start = -1;
+        
+        /** The text of the children, until they have been scanned. */
+        volatile SymlScanner.Section section;
+        
+        Node(String name, Object owner) {
+            this.name  = name;
+            this.owner = owner;
+        }
+        
+        /**
+         * Get the children of the node, scanning them first if needed.
+         * @return the children, or null if the node is a leaf
+         */
+        Children children() {
+            if (section != null) {
+                scan();
+            }
+            return children;
+        }
+        
+        private synchronized void scan() {
+            SymlScanner.Section s = section;
+            if (s != null) {
+                children = s.scan();
+                section  = null; // Publishes the children
+            }
+        }
+        
+        /**
+         * Set the value, unboxing booleans and the numbers the parser makes.
+         * Lists are copied, as they are shared with later versions of the
+         * node, and must never change.
+         */
+        void setValue(Object value) {
+            if (value instanceof Integer) {
+                setPrimitive(INT, (Integer) value);
+            } else if (value instanceof Long) {
+                setPrimitive(LONG, (Long) value);
+            } else if (value instanceof Double) {
+                setPrimitive(DOUBLE, Double.doubleToLongBits((Double) value));
+            } else if (value instanceof Boolean) {
+                setPrimitive(BOOLEAN, (Boolean) value ? 1 : 0);
+            } else if (value instanceof List<?>) {
+                data = new ArrayList<Object>((List<?>) value);
+                type = OBJECT;
+                bits = 0;
+            } else {
+                data = value;
+                type = OBJECT;
+                bits = 0;
+            }
+        }
+        
+        void setPrimitive(byte type, long bits) {
+            this.data = null;
+            this.type = type;
+            this.bits = bits;
+        }
+        
+        boolean hasValue() {
+            return type != OBJECT || data != null;
+        }
+        
+        /**
+         * Get the value, boxing it if it is a primitive, and wrapping it if
+         * it is a list.
+         */
+        Object value() {
+            switch (type) {
+                case BOOLEAN: return Boolean.valueOf(bits != 0);
+                case INT:     return Integer.valueOf((int) bits);
+                case LONG:    return Long.valueOf(bits);
+                case DOUBLE:  return Double.valueOf(Double.longBitsToDouble(bits));
+                default:      return (data instanceof List<?> ? Collections.unmodifiableList((List<?>) data) : data);
+            }
+        }
+        
+        /**
+         * Check if the value equals the value of the other node, like the
+         * equals() method of the boxed values would.
+         */
+        boolean sameValue(Node other) {
+            if (type != other.type || bits != other.bits) {
+                return false;
+            }
+            return (data == null ? other.data == null : data.equals(other.data));
+        }
+        
+        Node copy(Object owner) {
+            Node copy = new Node(name, owner);
+            copy.data    = data;
+            copy.type    = type;
+            copy.bits    = bits;
+            copy.start   = start;
+            Children children = children();
+            if (children != null) {
+                copy.children = children.copy();
+            }
+            return copy;
+        }
+        
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Node)) return false;
+            
+            Node other = (Node) o;
+            
+            if (hasValue() && other.hasValue()) {
+                return sameValue(other);
+            }
+            
+            Children children = children();
+            Children others = other.children();
+            if (children != null && others != null) {
+                return children.equals(others);
+            }
+            
+            return false;
+        }
+    }
+    
+    /**
+     * The children of a node, in document order. Up to SMALL children are
+     * kept in an array and found by comparing names, and larger sets get
+     * an open-addressing index into the array on top.
+     * <p>The comments of the children are kept here too, rather than in
+     * the children themselves, as most nodes don't have one. The array of
+     * comments is only created once a child has a comment.
+     * <p>Like nodes, the children of a node may only be changed by the
+     * epoch that owns the node.
+     */
+    static final class Children implements Iterable<Node> {
+        private static final int SMALL = 8;
+        
+        private Node[] nodes;
+        private String[] comments;
+        private int size;
+        
+        /** Slots hold index + 1, or 0 if empty. Null while small. */
+        private int[] table;
+        
+        Children() {
+            this(4);
+        }
+        
+        Children(int capacity) {
+            nodes = new Node[Math.max(capacity, 1)];
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        Node at(int index) {
+            return nodes[index];
+        }
+        
+        String commentAt(int index) {
+            return (comments != null ? comments[index] : null);
+        }
+        
+        /*
+         * The names are mostly interned, so identity settles most lookups,
+         * and the cached hash codes settle most of the rest.
+         */
+        int indexOf(String name) {
+            int h = name.hashCode();
+            if (table == null) {
+                for (int i = 0; i < size; i++) {
+                    String other = nodes[i].name;
+                    if (other == name || (other.hashCode() == h && other.equals(name))) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int mask = table.length - 1;
+            int slot = spread(h) & mask;
+            int k;
+            while ((k = table[slot]) != 0) {
+                String other = nodes[k - 1].name;
+                if (other == name || (other.hashCode() == h && other.equals(name))) {
+                    return k - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+        
+        /**
+         * Find the child named by the given range of the given key, without
+         * cutting it out of the key.
+         */
+        int indexOf(String key, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + key.charAt(i);
+            }
+            int length = to - from;
+            if (table == null) {
+                for (int i = 0; i < size; i++) {
+                    String other = nodes[i].name;
+                    if (other.hashCode() == h && other.length() == length && other.regionMatches(0, key, from, length)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int mask = table.length - 1;
+            int slot = spread(h) & mask;
+            int k;
+            while ((k = table[slot]) != 0) {
+                String other = nodes[k - 1].name;
+                if (other.hashCode() == h && other.length() == length && other.regionMatches(0, key, from, length)) {
+                    return k - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+        
+        Node get(String name) {
+            int i = indexOf(name);
+            return (i >= 0 ? nodes[i] : null);
+        }
+        
+        Node get(String key, int from, int to) {
+            int i = indexOf(key, from, to);
+            return (i >= 0 ? nodes[i] : null);
+        }
+        
+        boolean containsKey(String name) {
+            return indexOf(name) >= 0;
+        }
+        
+        String comment(String name) {
+            int i = (comments != null ? indexOf(name) : -1);
+            return (i >= 0 ? comments[i] : null);
+        }
+        
+        /**
+         * Add a child, or replace the child with the same name, comment
+         * and all. A replaced child keeps its position.
+         */
+        void put(Node node, String comment) {
+            int i = indexOf(node.name);
+            if (i >= 0) {
+                nodes[i] = node;
+                setComment(i, comment);
+            } else {
+                add(node, comment);
+            }
+        }
+        
+        /**
+         * Add a child that doesn't exist yet.
+         */
+        void add(Node node, String comment) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                if (comments != null) {
+                    comments = Arrays.copyOf(comments, size * 2);
+                }
+            }
+            nodes[size] = node;
+            int i = size++;
+            if (comment != null) {
+                setComment(i, comment);
+            }
+            if (table != null && size * 2 <= table.length) {
+                insert(i);
+            } else if (size > SMALL) {
+                index();
+            }
+        }
+        
+        /**
+         * Replace the child at the given index with one of the same name.
+         */
+        void set(int index, Node node) {
+            nodes[index] = node;
+        }
+        
+        void setComment(int index, String comment) {
+            if (comments == null) {
+                if (comment == null) {
+                    return;
+                }
+                comments = new String[nodes.length];
+            }
+            comments[index] = comment;
+        }
+        
+        Node remove(String name) {
+            int i = indexOf(name);
+            if (i < 0) {
+                return null;
+            }
+            Node node = nodes[i];
+            int moved = size - i - 1;
+            System.arraycopy(nodes, i + 1, nodes, i, moved);
+            nodes[--size] = null;
+            if (comments != null) {
+                System.arraycopy(comments, i + 1, comments, i, moved);
+                comments[size] = null;
+            }
+            // The indices have moved, so the index has to be rebuilt
+            table = null;
+            if (size > SMALL) {
+                index();
+            }
+            return node;
+        }
+        
+        Children copy() {
+            Children copy = new Children(0);
+            copy.nodes = nodes.clone();
+            copy.size  = size;
+            if (comments != null) {
+                copy.comments = comments.clone();
+            }
+            if (table != null) {
+                copy.table = table.clone();
+            }
+            return copy;
+        }
+        
+        private void index() {
+            int capacity = 32;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            table = new int[capacity];
+            for (int i = 0; i < size; i++) {
+                insert(i);
+            }
+        }
+        
+        private void insert(int index) {
+            int mask = table.length - 1;
+            int slot = spread(nodes[index].name.hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+        
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+        
+        /**
+         * Get a read-only view of the names of the children.
+         */
+        Set<String> keys() {
+            return new AbstractSet<String>() {
+                @Override
+                public Iterator<String> iterator() {
+                    final Iterator<Node> it = Children.this.iterator();
+                    return new Iterator<String>() {
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+                        
+                        public String next() {
+                            return it.next().name;
+                        }
+                        
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+                
+                @Override
+                public boolean contains(Object o) {
+                    return (o instanceof String) && containsKey((String) o);
+                }
+                
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        
+        @Override
+        public Iterator<Node> iterator() {
+            return new Iterator<Node>() {
+                private int next = 0;
+                
+                public boolean hasNext() {
+                    return next < size;
+                }
+                
+                public Node next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return nodes[next++];
+                }
+                
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        
+        /**
+         * The children are equal if they have equal children by the same
+         * names, in any order, like the equals() method of a Map.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Children)) return false;
+            
+            Children other = (Children) o;
+            if (size != other.size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                Node node = other.get(nodes[i].name);
+                if (node == null || !nodes[i].equals(node)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        public int hashCode() {
+            int h = 0;
+            for (int i = 0; i < size; i++) {
+                h += nodes[i].hashCode();
+            }
+            return h;
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package garbagemule.util.syml;
+
+/**
+ * The SymlPath class is a pre-split path of keys into a SYML tree.
+ *
+ * <p>The String-based getters and setters of {@link SymlNode} split their
+ * keys on every call. A SymlPath does the splitting once, so code which
+ * reads the same paths over and over can compile them up front and walk
+ * the tree with no String allocation at all.
+ *
+ * <p>The keys of a SymlPath are interned.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public final class SymlPath {
+    private final String path;
+    private final String[] keys;
+
+    private SymlPath(String path, String[] keys) {
+        this.path = path;
+        this.keys = keys;
+    }
+
+    /**
+     * Compile a path of dot-separated keys, e.g. "settings.affect-hunger".
+     * @param path the path to compile
+     * @return a new SymlPath
+     * @throws NullPointerException if the path is null
+     */
+    public static SymlPath compile(String path) {
+        // Count the keys first, to avoid an intermediate list
+        int count = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '.') count++;
+        }
+
+        String[] keys = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int dot = path.indexOf('.', start);
+            int end = (dot == -1 ? path.length() : dot);
+            keys[i] = path.substring(start, end).intern();
+            start = end + 1;
+        }
+        return new SymlPath(path, keys);
+    }
+
+    /**
+     * Get the number of keys in this path.
+     * @return the number of keys
+     */
+    public int length() {
+        return keys.length;
+    }
+
+    /**
+     * Get the key at the given index.
+     * @param index the index of the key, 0 being the outermost key
+     * @return the key at the index
+     * @throws ArrayIndexOutOfBoundsException if the index is out of range
+     */
+    public String get(int index) {
+        return keys[index];
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SymlPath)) return false;
+        return path.equals(((SymlPath) o).path);
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,468 @@
+package garbagemule.util.syml;
+
+import garbagemule.util.syml.SymlNode.Children;
+import garbagemule.util.syml.SymlNode.Node;
+import garbagemule.util.syml.parser.Scalar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SymlScanner loads documents lazily. A quick pass over the text
+ * checks that it is well-formed without creating any nodes, and the
+ * children of a section are only created from its range of the text
+ * the first time someone asks for them. The deeper sections are skipped
+ * over, and become sections of their own.
+ *
+ * <p>The scanner follows the same rules as the lexer and the parser, and
+ * builds the exact same tree. Anything out of the ordinary, i.e. errors,
+ * keys with periods in them, keys that appear more than once in the same
+ * section, comments in front of list items or numbers the parser might
+ * choke on, makes the check fail, in which case the
+ * document should be parsed as usual. That way, the proper exceptions
+ * are thrown at load time, and never by the getters.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+class SymlScanner {
+    // Line kinds
+    private static final int BLANK   = 0;
+    private static final int COMMENT = 1;
+    private static final int ITEM    = 2;
+    private static final int KEY     = 3;
+
+    // What the last key holds, for the check
+    private static final int NONE  = 0;
+    private static final int VALUE = 1;
+    private static final int LIST  = 2;
+
+    private final char[] text;
+    private final int end;
+    private final SymlKeys keys;
+    private final Scalar scalar = new Scalar();
+    private int next;
+
+    // The current line
+    private int start, stop, first, indent, kind, colon;
+
+    private SymlScanner(char[] text, int from, int to, SymlKeys keys) {
+        this.text = text;
+        this.end  = to;
+        this.next = from;
+        this.keys = keys;
+    }
+
+    /**
+     * Check the text, and create a root node whose children are scanned
+     * when they are first needed. The text must not be changed afterwards.
+     * @param text the source text
+     * @param length the length of the text
+     * @param keys the pool to intern the keys in
+     * @return the root node, or null if the text has to be parsed instead
+     */
+    static Node scan(char[] text, int length, SymlKeys keys) {
+        if (!check(text, length)) {
+            return null;
+        }
+        Node root = new Node("", null);
+        root.section = new Section(text, 0, length, keys);
+        return root;
+    }
+
+    /**
+     * Go through all the lines like the lexer and parser would, but with
+     * no more state than the indent of each level, and the keys seen in
+     * each section.
+     */
+    private static boolean check(char[] text, int length) {
+        SymlScanner s = new SymlScanner(text, 0, length, null);
+        int[] indents = new int[16];
+        int[] sections = new int[16];
+        int level = 0;
+        int section = 0;
+        KeySet seen = new KeySet(text);
+        boolean key = false;
+        boolean comment = false;
+        int data = NONE;
+
+        while (s.line()) {
+            switch (s.kind) {
+                case BLANK:
+                case COMMENT:
+                    comment = true;
+                    break;
+                case ITEM:
+                    // The parser puts pending comments on the next key
+                    if (!key || comment || data == VALUE) {
+                        return false;
+                    }
+                    if (s.first + 1 >= s.stop || text[s.first + 1] != ' ') {
+                        return false;
+                    }
+                    data = LIST;
+                    break;
+                default:
+                    if (s.indent > indents[level]) {
+                        if (!key || data != NONE) {
+                            return false;
+                        }
+                        if (++level == indents.length) {
+                            int[] bigger = new int[indents.length * 2];
+                            System.arraycopy(indents, 0, bigger, 0, indents.length);
+                            indents = bigger;
+                            bigger = new int[sections.length * 2];
+                            System.arraycopy(sections, 0, bigger, 0, sections.length);
+                            sections = bigger;
+                        }
+                        indents[level] = s.indent;
+                        sections[level] = ++section;
+                    } else if (s.indent < indents[level]) {
+                        while (s.indent < indents[level]) {
+                            level--;
+                        }
+                        if (s.indent != indents[level]) {
+                            return false;
+                        }
+                    }
+                    if (s.colon <= s.first) {
+                        return false;
+                    }
+                    for (int i = s.first; i < s.colon; i++) {
+                        if (text[i] == '.') return false;
+                    }
+                    // The parser merges the data of a key that appears
+                    // more than once, or throws, depending on what it holds
+                    if (!seen.add(sections[level], s.first, s.colon)) {
+                        return false;
+                    }
+                    if (s.colon + 1 < s.stop && text[s.colon + 1] != ' ') {
+                        return false;
+                    }
+                    int from = s.valueStart();
+                    int to = s.valueEnd(from);
+                    if (from < to && !safe(text, from, to)) {
+                        return false;
+                    }
+                    key = true;
+                    comment = false;
+                    data = (from < to ? VALUE : NONE);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check that the value won't make the parser throw, which it does for
+     * some values that look like numbers, but aren't.
+     */
+    private static boolean safe(char[] text, int from, int to) {
+        int i = (text[from] == '-' ? from + 1 : from);
+        int digits = 0;
+        boolean period = false;
+        for (; i < to; i++) {
+            char c = text[i];
+            if (c == '.' && !period) {
+                period = true;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' || !Character.isDigit(c)) {
+                return true; // Not a number, so a String or a Boolean
+            } else {
+                return false; // Other digits, Double.parseDouble doesn't like those
+            }
+        }
+        return digits > 0 && digits < 19;
+    }
+
+    /**
+     * Scan the children in the range of this scanner into the given map.
+     */
+    private Children children(Children children) {
+        int level = -1;
+
+        // The first comment line since the last key, if any
+        int run = -1;
+
+        // The child being scanned, and the line after its key
+        Node child = null;
+        String comment = null;
+        List<String> list = null;
+        int after = 0;
+        boolean nested = false;
+
+        while (line()) {
+            switch (kind) {
+                case BLANK:
+                case COMMENT:
+                    if (run < 0) run = start;
+                    break;
+                case ITEM:
+                    // Items after a deeper key belong to that key
+                    if (child != null && !nested) {
+                        if (list == null) {
+                            list = new ArrayList<String>();
+                            child.data = list;
+                        }
+                        list.add(new String(text, first + 2, stop - first - 2));
+                    }
+                    break;
+                default:
+                    if (level < 0) {
+                        level = indent;
+                    }
+                    if (indent > level) {
+                        nested = true;
+                        run = -1;
+                        break;
+                    }
+                    int at = (run >= 0 ? run : start);
+                    if (child != null) {
+                        children = put(children, child, comment, (nested ? after : -1), at);
+                    }
+                    child = new Node(keys.intern(text, first, colon), null);
+                    child.start = at;
+                    comment = (run >= 0 ? comment(run, start) : null);
+                    value(child);
+                    list   = null;
+                    after  = next;
+                    nested = false;
+                    run    = -1;
+                    break;
+            }
+        }
+        if (child != null) {
+            children = put(children, child, comment, (nested ? after : -1), (run >= 0 ? run : end));
+        }
+        return children;
+    }
+
+    /**
+     * Set the value of the current key line, if any, on the given node.
+     */
+    private void value(Node node) {
+        int from = valueStart();
+        int to = valueEnd(from);
+        if (from >= to) {
+            return;
+        }
+        switch (scalar.parse(text, from, to)) {
+            case Scalar.BOOLEAN: node.setPrimitive(Node.BOOLEAN, scalar.booleanValue() ? 1 : 0); break;
+            case Scalar.INT:     node.setPrimitive(Node.INT, scalar.intValue());                  break;
+            case Scalar.LONG:    node.setPrimitive(Node.LONG, scalar.longValue());                break;
+            case Scalar.DOUBLE:  node.setPrimitive(Node.DOUBLE, Double.doubleToLongBits(scalar.doubleValue())); break;
+            default:             node.data = new String(text, from, to - from);                   break;
+        }
+    }
+
+    /**
+     * Add a child to the map. The check makes sure that the keys of a
+     * section are all different. The body is the start of the text of the
+     * children of the child, or -1 if it has none.
+     */
+    private Children put(Children children, Node child, String comment, int body, int end) {
+        if (children == null) {
+            children = new Children();
+        }
+        if (body >= 0) {
+            child.section = new Section(text, body, end, keys);
+        }
+        children.add(child, comment);
+        return children;
+    }
+
+    /**
+     * Build the comment of the lines in the given range, like the parser.
+     */
+    private String comment(int from, int to) {
+        StringBuilder buffy = new StringBuilder();
+        SymlScanner s = new SymlScanner(text, from, to, keys);
+        while (s.line()) {
+            if (s.kind == COMMENT) {
+                int length = s.stop - s.first - 1;
+                if (length == 0) {
+                    buffy.append(' ');
+                } else {
+                    buffy.append(text, s.first + 1, length);
+                }
+            }
+            buffy.append('\n');
+        }
+        return buffy.toString();
+    }
+
+    /**
+     * Move on to the next line.
+     * @return true, if there was another line, false otherwise
+     */
+    private boolean line() {
+        if (next >= end) {
+            return false;
+        }
+        start = next;
+        stop = start;
+        while (stop < end && text[stop] != '\n' && text[stop] != '\r') {
+            stop++;
+        }
+        next = stop;
+        if (next < end && text[next++] == '\r' && next < end && text[next] == '\n') {
+            next++;
+        }
+
+        // Tabs go to the next multiple of four, like in the lexer
+        int amount = 0;
+        int i = start;
+        for (; i < stop; i++) {
+            if (text[i] == ' ') {
+                amount++;
+            } else if (text[i] == '\t') {
+                amount += 4 - (amount % 4);
+            } else {
+                break;
+            }
+        }
+        first  = i;
+        indent = amount;
+
+        kind = BLANK;
+        for (; i < stop; i++) {
+            if (text[i] > ' ') {
+                kind = KEY;
+                break;
+            }
+        }
+        if (kind == KEY) {
+            if (text[first] == '#') {
+                kind = COMMENT;
+            } else if (text[first] == '-') {
+                kind = ITEM;
+            } else {
+                // The key ends at the colon, and a pound sign is an error
+                colon = -1;
+                for (i = first; i < stop; i++) {
+                    if (text[i] == ':') {
+                        colon = i;
+                        break;
+                    }
+                    if (text[i] == '#') {
+                        break;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the start of the value of the current key line, trimmed.
+     */
+    private int valueStart() {
+        int i = colon + 2;
+        while (i < stop && text[i] <= ' ') i++;
+        return i;
+    }
+
+    /**
+     * Get the end of the value of the current key line, trimmed.
+     */
+    private int valueEnd(int from) {
+        int i = stop;
+        while (i > from && text[i - 1] <= ' ') i--;
+        return i;
+    }
+
+    /**
+     * The range of the text that holds the children of a node.
+     */
+    static final class Section {
+        private final char[] text;
+        private final SymlKeys keys;
+        private final int from, to;
+
+        Section(char[] text, int from, int to, SymlKeys keys) {
+            this.text = text;
+            this.keys = keys;
+            this.from = from;
+            this.to   = to;
+        }
+
+        /**
+         * Scan the children.
+         * @return the children, or null if there are none
+         */
+        Children scan() {
+            return new SymlScanner(text, from, to, keys).children(null);
+        }
+    }
+
+    /**
+     * The keys of the lines checked so far, as the section they are in
+     * and their range of the text, in an open-addressing table.
+     */
+    private static final class KeySet {
+        private final char[] text;
+
+        // Four ints per slot: hash, section, start and end of the key. No
+        // key ends at 0, so that marks the empty slots
+        private int[] slots = new int[4 * 64];
+        private int count;
+
+        KeySet(char[] text) {
+            this.text = text;
+        }
+
+        /**
+         * Add a key to the set.
+         * @return true, if the key was not in the section yet, false otherwise
+         */
+        boolean add(int section, int from, int to) {
+            int hash = section;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + text[i];
+            }
+            int mask = slots.length / 4 - 1;
+            int i = (hash ^ (hash >>> 16)) & mask;
+            while (slots[4 * i + 3] != 0) {
+                if (slots[4 * i] == hash && slots[4 * i + 1] == section && same(slots[4 * i + 2], slots[4 * i + 3], from, to)) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[4 * i]     = hash;
+            slots[4 * i + 1] = section;
+            slots[4 * i + 2] = from;
+            slots[4 * i + 3] = to;
+            if (++count * 2 > mask) {
+                grow();
+            }
+            return true;
+        }
+
+        private boolean same(int from, int to, int otherFrom, int otherTo) {
+            if (to - from != otherTo - otherFrom) {
+                return false;
+            }
+            for (int i = 0; i < to - from; i++) {
+                if (text[from + i] != text[otherFrom + i]) return false;
+            }
+            return true;
+        }
+
+        private void grow() {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            int mask = slots.length / 4 - 1;
+            for (int j = 0; j < old.length; j += 4) {
+                if (old[j + 3] != 0) {
+                    int hash = old[j];
+                    int i = (hash ^ (hash >>> 16)) & mask;
+                    while (slots[4 * i + 3] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    System.arraycopy(old, j, slots, 4 * i, 4);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package garbagemule.util.syml;
+
+import garbagemule.util.syml.SymlNode.Children;
+import garbagemule.util.syml.SymlNode.Node;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The SymlSplicer writes a new version of a parsed document by copying the
+ * source text of every node that hasn't changed, and emitting only the
+ * nodes that have.
+ *
+ * <p>The versions of a SymlNode tree share all of the nodes that haven't
+ * changed, so comparing the current version to the parsed one by identity
+ * only visits the paths that were written to. Everything else, including
+ * the comments and formatting of the original file, is copied as is. New
+ * keys are appended to the end of their parent, and the emitted lines end
+ * with the line separator of the original file.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+class SymlSplicer {
+    private final char[] text;
+    private final int length;
+    private final Node base;
+    private final String comment;
+
+    // What the lines of the text tell about it, see lines()
+    private String newline = "\n";
+    private int tail;
+    private boolean itemAfterComment;
+
+    private SymlSplicer(char[] text, int length, Node base, String comment) {
+        this.text    = text;
+        this.length  = length;
+        this.base    = base;
+        this.comment = comment;
+        lines();
+    }
+
+    /**
+     * Create a splicer for the given text and the tree that was parsed
+     * from it. The text must not be changed afterwards.
+     * @param text the source text
+     * @param length the length of the source text
+     * @param base the root of the parsed tree
+     * @param comment the comment of the root
+     * @return a new SymlSplicer
+     */
+    static SymlSplicer create(char[] text, int length, Node base, String comment) {
+        return new SymlSplicer(text, length, base, comment);
+    }
+
+    /**
+     * Go through the lines of the text once, to find:
+     * <ul>
+     * <li>the line separator, which is that of the first line
+     * <li>the tail, i.e. the comment and blank lines after the last key or
+     * list item, which no node holds, and which stay at the end
+     * <li>whether there are list items right below comment or blank lines.
+     * The parser holds on to those lines for the next key, so the text of
+     * that key starts above the items of the one before it. Such texts are
+     * emitted as a whole, like the scanner parses them as a whole.
+     * </ul>
+     */
+    private void lines() {
+        for (int i = 0; i < length; i++) {
+            if (text[i] == '\n') {
+                newline = "\n";
+                break;
+            }
+            if (text[i] == '\r') {
+                newline = (i + 1 < length && text[i + 1] == '\n' ? "\r\n" : "\r");
+                break;
+            }
+        }
+
+        boolean comment = false;
+        int pos = 0;
+        while (pos < length) {
+            int i = pos;
+            while (i < length && text[i] != '\n' && text[i] != '\r' && text[i] <= ' ') {
+                i++;
+            }
+            int next = nextLine(pos);
+            if (i == length || text[i] == '\n' || text[i] == '\r' || text[i] == '#') {
+                comment = true;
+            } else {
+                if (text[i] == '-' && comment) {
+                    itemAfterComment = true;
+                }
+                comment = false;
+                tail = next;
+            }
+            pos = next;
+        }
+    }
+
+    /**
+     * Check that the children start in document order, and within the
+     * given range. If they don't, e.g. because of duplicate keys, their
+     * parent has to be emitted.
+     * <p>Only the nodes on the paths that have changed are checked, so a
+     * lazily loaded tree isn't scanned any further than it has been read.
+     */
+    private static boolean ordered(Children children, int min, int end) {
+        for (Node child : children) {
+            if (child.start < min || child.start >= end) {
+                return false;
+            }
+            min = child.start + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Write the given version of the tree.
+     * @param current the root of the version to write
+     * @param comment the comment of the root of the version
+     * @param out the Writer to write to
+     * @throws IOException if the Writer throws one
+     */
+    void splice(Node current, String comment, Writer out) throws IOException {
+        Output output = new Output(out);
+        if (current == base && equal(comment, this.comment)) {
+            output.copy(0, length);
+        } else if (current.children() == null || base.children() == null || !equal(comment, this.comment)
+                || itemAfterComment || !ordered(base.children(), 0, tail)) {
+            // Nothing left to splice into
+            new SymlEmitter(out, newline).emit(SymlNode.pin(current, comment));
+        } else {
+            output.copy(0, base.children().at(0).start);
+            children(output, current, base, tail, "");
+            output.copy(tail, length);
+        }
+        out.flush();
+    }
+
+    /*
+     * Nodes don't hold their own comments, their parents do, so the
+     * comments of both versions are passed in along with the nodes.
+     */
+    private void node(Output output, Node current, String comment, Node old, String oldComment, int end, String indent) throws IOException {
+        boolean same = equal(comment, oldComment);
+        if (current == old && same) {
+            output.copy(old.start, end);
+            return;
+        }
+
+        // Leaves that became parents, or the other way around
+        boolean leaf = (current.children() == null);
+        if (leaf != (old.children() == null)) {
+            output.emit(current, comment, indent);
+            return;
+        }
+
+        if (leaf) {
+            if (same && current.sameValue(old)) {
+                output.copy(old.start, end);
+            } else {
+                output.emit(current, comment, indent);
+            }
+            return;
+        }
+
+        Children children = old.children();
+        if (!ordered(children, old.start + 1, end)) {
+            output.emit(current, comment, indent);
+            return;
+        }
+
+        Node first = children.at(0);
+        if (same) {
+            output.copy(old.start, first.start);
+        } else {
+            output.emitHead(current, comment, indent);
+        }
+        children(output, current, old, end, indentOf(first, children.commentAt(0)));
+    }
+
+    private void children(Output output, Node current, Node old, int end, String indent) throws IOException {
+        Children children = current.children();
+        Children oldChildren = old.children();
+        for (int i = 0; i < children.size(); i++) {
+            Node child = children.at(i);
+            int k = oldChildren.indexOf(child.name);
+            if (k < 0) {
+                output.emit(child, children.commentAt(i), indent);
+                continue;
+            }
+
+            // A child's text ends where the next one starts
+            Node match = oldChildren.at(k);
+            String comment = oldChildren.commentAt(k);
+            int to = (k + 1 < oldChildren.size() ? oldChildren.at(k + 1).start : end);
+            node(output, child, children.commentAt(i), match, comment, to, indentOf(match, comment));
+        }
+    }
+
+    /**
+     * Get the whitespace in front of the key of the given node.
+     */
+    private String indentOf(Node node, String comment) {
+        int pos = node.start;
+
+        // The comment comes first, one line per line break
+        if (comment != null) {
+            for (int i = 0; i < comment.length(); i++) {
+                if (comment.charAt(i) == '\n') {
+                    pos = nextLine(pos);
+                }
+            }
+        }
+
+        int end = pos;
+        while (end < length && (text[end] == ' ' || text[end] == '\t')) {
+            end++;
+        }
+        return new String(text, pos, end - pos);
+    }
+
+    private int nextLine(int pos) {
+        while (pos < length && text[pos] != '\n' && text[pos] != '\r') {
+            pos++;
+        }
+        if (pos < length && text[pos++] == '\r' && pos < length && text[pos] == '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null ? b == null : a.equals(b));
+    }
+
+    /**
+     * Keeps track of whether the output is at the start of a line, such
+     * that emitted nodes don't end up on the last line of a copied one.
+     */
+    private class Output {
+        private final Writer out;
+        private final SymlEmitter emitter;
+        private boolean lineStart = true;
+
+        private Output(Writer out) {
+            this.out     = out;
+            this.emitter = new SymlEmitter(out, newline);
+        }
+
+        private void copy(int from, int to) throws IOException {
+            if (to > from) {
+                // Copies start at the start of a line, but the last line
+                // of the text may have been copied already, e.g. when a
+                // key was removed and added again
+                newline();
+                out.write(text, from, to - from);
+                lineStart = (text[to - 1] == '\n' || text[to - 1] == '\r');
+            }
+        }
+
+        private void emit(Node node, String comment, String indent) throws IOException {
+            newline();
+            emitter.emit(SymlNode.pin(node, comment), indent);
+        }
+
+        private void emitHead(Node node, String comment, String indent) throws IOException {
+            newline();
+            emitter.emitHead(SymlNode.pin(node, comment), indent);
+        }
+
+        private void newline() throws IOException {
+            if (!lineStart) {
+                out.write(newline);
+                lineStart = true;
+            }
+        }
+    }
+}
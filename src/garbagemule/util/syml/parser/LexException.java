@@ -1,27 +1,30 @@
 package garbagemule.util.syml.parser;
 
+import garbagemule.util.syml.parser.token.SourceText;
+
 import java.util.List;
 
 @SuppressWarnings("serial")
 public class LexException extends RuntimeException {
-    private List<String> input;
-    private String line;
+    private SourceText source;
+    private int lineStart;
     private int lineNumber, columnNumber;
     
-    public LexException(String msg, List<String> input, String snip, int line, int column) {
+    public LexException(String msg, SourceText source, int lineStart, int line, int column) {
         super(msg);
-        this.input        = input;
-        this.line         = snip;
+        this.source       = source;
+        this.lineStart    = lineStart;
         this.lineNumber   = line;
         this.columnNumber = column;
     }
 
     /**
      * Get the full input text given to the lexer.
+     * <p>Note that the list is created on every call.
      * @return the full input text
      */
     public List<String> getInput() {
-        return input;
+        return source.lines();
     }
 
     /**
@@ -29,7 +32,7 @@ public class LexException extends RuntimeException {
      * @return the line on which the problem exists
      */
     public String getLine() {
-        return line;
+        return source.line(lineStart);
     }
 
     /**
@@ -61,6 +64,6 @@ public class LexException extends RuntimeException {
         buffy.append('^');
         
         // Create the error message
-        return super.getMessage() + "\n" + info + "\n" + line + "\n" + buffy.toString();
+        return super.getMessage() + "\n" + info + "\n" + getLine() + "\n" + buffy.toString();
     }
 }
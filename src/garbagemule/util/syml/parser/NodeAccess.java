@@ -0,0 +1,75 @@
+package garbagemule.util.syml.parser;
+
+import garbagemule.util.syml.SymlNode;
+
+/**
+ * The NodeAccess class lets the parser get at the parts of a
+ * {@link SymlNode} that are not part of its public API, e.g. the offsets
+ * in the source text that saves copy unchanged nodes from.
+ *
+ * <p>SymlNode registers the only instance when it is initialized, and the
+ * instance is only handed out within this package, so nobody else can
+ * use it, even though the class has to be public for SymlNode to extend.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public abstract class NodeAccess {
+    private static NodeAccess access;
+
+    static {
+        // Make sure that SymlNode has registered before anyone else can
+        try {
+            Class.forName(SymlNode.class.getName(), true, SymlNode.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    protected NodeAccess() {}
+
+    /**
+     * Register the instance. Only SymlNode can do this, as it always gets
+     * to do it first.
+     * @param access the instance
+     * @throws IllegalStateException if there is an instance already
+     */
+    public static void register(NodeAccess access) {
+        if (NodeAccess.access != null) {
+            throw new IllegalStateException("Already registered.");
+        }
+        NodeAccess.access = access;
+    }
+
+    /**
+     * Get the instance. Anyone with a SymlNode to pass to it can get it,
+     * as SymlNode has been initialized by then.
+     */
+    static NodeAccess get() {
+        return access;
+    }
+
+    /**
+     * Set the offset in the source text where the given node starts, i.e.
+     * the first line of its comment, or its key if it has no comment.
+     * @param node the node
+     * @param offset the offset of the node in the source text
+     */
+    protected abstract void setSourceOffset(SymlNode node, int offset);
+
+    /**
+     * Get the data value of the given node, like get(), but without
+     * keeping the current version of the tree from being written in place.
+     * @param node the node
+     * @return the data value of the node, may be null
+     */
+    protected abstract Object peek(SymlNode node);
+
+    /**
+     * Mark the given node as having its text in more than one place, such
+     * that saves emit its parent instead of copying the text of its
+     * children.
+     * @param node the node
+     */
+    protected abstract void scatter(SymlNode node);
+}
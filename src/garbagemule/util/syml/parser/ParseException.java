@@ -1,14 +1,19 @@
 package garbagemule.util.syml.parser;
 
-import garbagemule.util.syml.parser.token.Token;
+import garbagemule.util.syml.parser.token.SourceText;
 
 @SuppressWarnings("serial")
 public class ParseException extends RuntimeException {
-    private Token token;
+    private SourceText source;
+    private int lineStart;
+    private int lineNumber, columnNumber;
     
-    public ParseException(String msg, Token token) {
+    public ParseException(String msg, SourceText source, int lineStart, int line, int column) {
         super(msg);
-        this.token = token;
+        this.source       = source;
+        this.lineStart    = lineStart;
+        this.lineNumber   = line;
+        this.columnNumber = column;
     }
 
     /**
@@ -16,7 +21,7 @@ public class ParseException extends RuntimeException {
      * @return the line on which the problem exists
      */
     public String getLine() {
-        return token.getLine();
+        return source.line(lineStart);
     }
 
     /**
@@ -24,7 +29,7 @@ public class ParseException extends RuntimeException {
      * @return the line number
      */
     public int getLineNumber() {
-        return token.getLineNumber();
+        return lineNumber;
     }
 
     /**
@@ -32,22 +37,22 @@ public class ParseException extends RuntimeException {
      * @return the column number
      */
     public int getColumn() {
-        return token.getColumnNumber();
+        return columnNumber;
     }
     
     @Override
     public String getLocalizedMessage() {
         // Create the info string
-        String info = "on line " + token.getLineNumber() + ", column " + token.getColumnNumber() + ":";
+        String info = "on line " + lineNumber + ", column " + columnNumber + ":";
         
         // Create the arrow (from 1 to avoid column-1)
         StringBuilder buffy = new StringBuilder();
-        for (int i = 1; i < token.getColumnNumber(); i++) {
+        for (int i = 1; i < columnNumber; i++) {
             buffy.append(' ');
         }
         buffy.append('^');
         
         // Create the error message
-        return super.getMessage() + "\n" + info + "\n" + token.getLine() + "\n" + buffy.toString();
+        return super.getMessage() + "\n" + info + "\n" + getLine() + "\n" + buffy.toString();
     }
 }
@@ -0,0 +1,166 @@
+package garbagemule.util.syml.parser;
+
+/**
+ * The Scalar class types a value straight from its characters, in a single
+ * pass. A value is either a boolean ("true" or "false", in any case), a
+ * number, i.e. an optional minus followed by digits and at most one period,
+ * or a String.
+ *
+ * <p>Numbers with a period are doubles. Numbers without one are ints if
+ * they have at most nine digits, and longs otherwise, regardless of their
+ * value. The common cases are computed while scanning, and only the rare
+ * ones, like doubles with many digits, are handed to the parse methods of
+ * the wrapper classes, which also means that the same values throw the
+ * same NumberFormatExceptions.
+ *
+ * <p>A Scalar holds the result of the last call to parse(), so it can be
+ * reused for every value, and typing a value allocates nothing.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public final class Scalar {
+    public static final int STRING  = 0;
+    public static final int BOOLEAN = 1;
+    public static final int INT     = 2;
+    public static final int LONG    = 3;
+    public static final int DOUBLE  = 4;
+
+    /**
+     * Doubles with at most this many digits are computed exactly from
+     * their digits and a power of ten.
+     */
+    private static final int EXACT_DIGITS = 15;
+    private static final double[] POWERS = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private long integral;
+    private double real;
+
+    /**
+     * Type the value in the given range of characters. The value must
+     * already be trimmed.
+     * @param chars the character buffer
+     * @param from the offset of the first character of the value
+     * @param to the offset after the last character of the value
+     * @return the type of the value, i.e. STRING, BOOLEAN, INT, LONG or
+     * DOUBLE
+     * @throws NumberFormatException for some values that look like
+     * numbers, but aren't, e.g. "-"
+     */
+    public int parse(char[] chars, int from, int to) {
+        int length = to - from;
+        if (length == 4 && matches(chars, from, "true")) {
+            integral = 1;
+            return BOOLEAN;
+        }
+        if (length == 5 && matches(chars, from, "false")) {
+            integral = 0;
+            return BOOLEAN;
+        }
+
+        boolean negative = (length > 0 && chars[from] == '-');
+        int i = (negative ? from + 1 : from);
+
+        // One pass over the digits, keeping as many as fit in a long
+        long digits = 0;
+        int total = 0, count = 0, decimals = 0;
+        boolean period = false, ascii = true;
+        for (; i < to; i++) {
+            char c = chars[i];
+            if (c == '.') {
+                if (period) {
+                    return STRING;
+                }
+                period = true;
+            } else if (c >= '0' && c <= '9') {
+                total++;
+                if (count > 0 || c != '0') {
+                    count++;
+                }
+                if (count <= 18) {
+                    digits = digits * 10 + (c - '0');
+                }
+                if (period) {
+                    decimals++;
+                }
+            } else if (Character.isDigit(c)) {
+                ascii = false;
+            } else {
+                return STRING;
+            }
+        }
+
+        if (period) {
+            if (ascii && total > 0 && count <= EXACT_DIGITS && decimals < POWERS.length) {
+                // Both are exact, so the division is correctly rounded
+                double value = digits / POWERS[decimals];
+                real = (negative ? -value : value);
+            } else {
+                real = Double.parseDouble(new String(chars, from, length));
+            }
+            return DOUBLE;
+        }
+
+        // The number of characters decides the type, not the value
+        boolean useLong = (length - (negative ? 1 : 0)) > 9;
+        if (ascii && total > 0 && count <= 18) {
+            integral = (negative ? -digits : digits);
+            return (useLong ? LONG : INT);
+        }
+        String s = new String(chars, from, length);
+        if (useLong) {
+            integral = Long.parseLong(s);
+            return LONG;
+        }
+        integral = Integer.parseInt(s);
+        return INT;
+    }
+
+    private static boolean matches(char[] chars, int from, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = chars[from + i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the last value as a boolean.
+     * @return the boolean value, if the last value was a BOOLEAN
+     */
+    public boolean booleanValue() {
+        return integral != 0;
+    }
+
+    /**
+     * Get the last value as an int.
+     * @return the int value, if the last value was an INT
+     */
+    public int intValue() {
+        return (int) integral;
+    }
+
+    /**
+     * Get the last value as a long.
+     * @return the long value, if the last value was an INT or a LONG
+     */
+    public long longValue() {
+        return integral;
+    }
+
+    /**
+     * Get the last value as a double.
+     * @return the double value, if the last value was a DOUBLE
+     */
+    public double doubleValue() {
+        return real;
+    }
+}
@@ -0,0 +1,22 @@
+package garbagemule.util.syml.parser;
+
+/**
+ * The events of a {@link SymlReader}.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public enum SymlEvent {
+    /** The keys that follow belong to the last key, until END_SECTION. */
+    START_SECTION,
+    /** A key. */
+    KEY,
+    /** The value of the last key. */
+    SCALAR,
+    /** A list item of the last key. */
+    LIST_ITEM,
+    /** A comment line. */
+    COMMENT,
+    /** The end of the section of the last START_SECTION still open. */
+    END_SECTION
+}
@@ -0,0 +1,52 @@
+package garbagemule.util.syml.parser;
+
+/**
+ * A handler for the events of a {@link SymlReader}, called through the
+ * read(SymlHandler) method of the reader. Every method returns whether
+ * the reader should go on, so a handler can stop as soon as it has what
+ * it needs.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public interface SymlHandler {
+    /**
+     * The keys that follow belong to the last key, until endSection().
+     * @return true to go on, false to stop
+     */
+    public boolean startSection();
+
+    /**
+     * A key.
+     * @param key the key, as written, i.e. with any periods in it
+     * @return true to go on, false to stop
+     */
+    public boolean key(String key);
+
+    /**
+     * The value of the last key.
+     * @param value the value, typed like in a SymlNode tree
+     * @return true to go on, false to stop
+     */
+    public boolean scalar(Object value);
+
+    /**
+     * A list item of the last key.
+     * @param item the list item
+     * @return true to go on, false to stop
+     */
+    public boolean listItem(String item);
+
+    /**
+     * A comment line.
+     * @param comment the text after the pound sign
+     * @return true to go on, false to stop
+     */
+    public boolean comment(String comment);
+
+    /**
+     * The end of the innermost section.
+     * @return true to go on, false to stop
+     */
+    public boolean endSection();
+}
@@ -1,21 +1,26 @@
 package garbagemule.util.syml.parser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.Reader;
 import java.util.List;
 
 import garbagemule.util.syml.parser.token.*;
 
-public class SymlLexer {
+/**
+ * The SymlLexer turns SYML text into a {@link TokenStream}.
+ * <p>Lexing is lazy: the returned stream pulls tokens out of the lexer one
+ * line at a time, as the parser asks for them. This also means that any
+ * LexException is thrown while the stream is being consumed. A lexer must
+ * not be given a new document until the previous stream has been consumed.
+ */
+public class SymlLexer implements TokenStream.Producer {
     private TokenStream stream;
-    private List<String> input;
-    private Iterator<String> iterator;
-    private String line;
+    private SourceText source;
+    private char[] chars;
+    private int next, end;
+    private int lineStart, lineLength;
     private int position, lineCount;
-    
+
     /**
      * Generate a TokenStream from an input String list.
      * <p>Each string in the list represents a line in a SYML file.
@@ -27,20 +32,11 @@ public class SymlLexer {
      * @throws NullPointerException if the list is null
      */
     public TokenStream lex(List<String> lines) {
-        stream    = new TokenStream();
-        input     = lines;
-        lineCount = 0;
-        
-        // Grab the iterator on the list
-        iterator = input.iterator();
-        
-        // Lex all the lines
-        while (iterator.hasNext()) {
-            line();
-        }
-        
-        // Return the stream
-        return stream;
+        StringBuilder buffy = new StringBuilder();
+        for (String line : lines) {
+            buffy.append(line).append('\n');
+        }
+        return lex(buffy.toString());
     }
 
     /**
@@ -53,75 +49,142 @@ public class SymlLexer {
      * @throws NullPointerException if the String is null
      */
     public TokenStream lex(String input) {
-        List<String> lines = new ArrayList<String>();
-        BufferedReader br = new BufferedReader(new StringReader(input));
-        String line;
-        try {
-            while ((line = br.readLine()) != null) {
-                lines.add(line);
+        char[] chars = input.toCharArray();
+        return lex(chars, chars.length);
+    }
+
+    /**
+     * Generate a TokenStream from everything the given Reader has left.
+     * <p>The Reader is read to the end, but not closed.
+     * @param reader the input Reader
+     * @return a stream of tokens generated from the input
+     * @throws IOException if the Reader throws one
+     * @throws NullPointerException if the Reader is null
+     */
+    public TokenStream lex(Reader reader) throws IOException {
+        char[] chars = new char[8192];
+        int length = 0;
+        int read;
+        while ((read = reader.read(chars, length, chars.length - length)) != -1) {
+            length += read;
+            if (length == chars.length) {
+                char[] bigger = new char[chars.length * 2];
+                System.arraycopy(chars, 0, bigger, 0, length);
+                chars = bigger;
             }
-            return lex(lines);
         }
-        catch (IOException e) {
-            return null;
+        return lex(chars, length);
+    }
+
+    /**
+     * Generate a TokenStream from the first length characters of the
+     * given buffer.
+     * <p>Lines may end in "\n", "\r" or "\r\n". The tokens refer to the
+     * buffer rather than copying out of it, so it must not be changed
+     * while the tokens are in use.
+     * @param chars the input buffer
+     * @param length the number of characters to lex
+     * @return a stream of tokens generated from the input
+     * @throws NullPointerException if the buffer is null
+     */
+    public TokenStream lex(char[] chars, int length) {
+        return lex(new SourceText(chars, length), 0, length, 0);
+    }
+
+    /**
+     * Generate a TokenStream from a range of lines of the given text.
+     * <p>The range must start at the start of a line, and end at the end
+     * of the text or at the start of another line. The offsets of the
+     * tokens are offsets into the whole text, and line numbers count from
+     * the start of the text, so exceptions point at the right line.
+     * @param source the whole text
+     * @param from the offset of the first line to lex
+     * @param to the offset after the last line to lex
+     * @param line the number of lines in the text before the range
+     * @return a stream of tokens generated from the range
+     * @throws NullPointerException if the source is null
+     */
+    public TokenStream lex(SourceText source, int from, int to, int line) {
+        this.stream    = new TokenStream(source, this);
+        this.source    = source;
+        this.chars     = source.chars();
+        this.end       = to;
+        this.next      = from;
+        this.lineCount = line;
+
+        // Return the stream, lines are lexed as it asks for them
+        return stream;
+    }
+
+    /**
+     * Lex the next line of the input into the stream.
+     * @param stream the stream asking for tokens
+     * @return true, if there may be more lines, false otherwise
+     */
+    @Override
+    public boolean produce(TokenStream stream) {
+        if (stream != this.stream || next >= end) {
+            return false;
         }
+        int lineEnd = source.lineEnd(next);
+        lineStart  = next;
+        lineLength = lineEnd - next;
+        next = source.nextLine(lineEnd);
+        line();
+        return true;
     }
-    
+
     /**
-     * precondition: the iterator has more elements
-     * postcondition: the iterator has one fewer elements
+     * precondition: lineStart and lineLength describe the next line
+     * postcondition: the line will have been completely consumed
      */
     private void line() {
-        // Grab the next line and reset the position
-        line = iterator.next();
+        // Reset the position
         position = -1;
         lineCount++;
-        
+
         // Grab the indent first
         indent();
-        
+
         // Special case - completely empty line -> null comment
         if (position == -1 || isRestWhitespace()) {
-            stream.add(new CommentToken(null, line, lineCount, (position >= 0 ? position : 0)));
-            stream.add(new LineBreakToken(line, lineCount, position));
+            stream.add(TokenType.COMMENT, -1, -1, lineStart, lineCount, (position >= 0 ? position : 0));
+            stream.add(TokenType.LINEBREAK, -1, -1, lineStart, lineCount, position);
             return;
         }
-        
+
         // Then the comment, listitem or node
         switch (current()) {
             case '#': comment();  break;
             case '-': listitem(); break;
             default:  node();     break;
         }
-        
+
         // Finally, the actually linebreak
-        stream.add(new LineBreakToken(line, lineCount, position));
+        stream.add(TokenType.LINEBREAK, -1, -1, lineStart, lineCount, position);
     }
-    
+
     /**
      * precondition: current position is before the start of a new line (-1)
      * postcondition: current char is not a space or a tab
      */
     private void indent() {
-        StringBuilder buffy = new StringBuilder();
-        
+        int amount = 0;
+
         while (hasNext()) {
             char c = next();
             if (c == ' ') {
-                buffy.append(c);
+                amount++;
             } else if (c == '\t') {
-                int length = 4 - (buffy.length() % 4);
-                for (int i = 0; i < length; i++) {
-                    buffy.append(' ');
-                }
+                amount += 4 - (amount % 4);
             } else {
                 break;
             }
         }
-        
-        stream.add(new IndentToken(buffy.toString(), line, lineCount, position));
+
+        stream.addIndent(amount, lineStart, lineCount, position);
     }
-    
+
     /**
      * precondition: current position is at a hash tag
      * postcondition: the line will have been completely consumed
@@ -129,43 +192,48 @@ public class SymlLexer {
     private void comment() {
         // In case of empty comment lines, just add and return
         if (!hasNext()) {
-            stream.add(new CommentToken("", line, lineCount, 0));
+            int end = lineStart + lineLength;
+            stream.add(TokenType.COMMENT, end, end, lineStart, lineCount, 0);
             return;
         }
-        
+
         // Otherwise, skip the hash tag
         int start = position;
         next();
-        
+
         // Consume the rest of the line
-        String comment = consume();
-        
+        int from = consume();
+
         // Add the comment token
-        stream.add(new CommentToken(comment, line, lineCount, start));
+        stream.add(TokenType.COMMENT, from, lineStart + lineLength, lineStart, lineCount, start);
     }
-    
+
     /**
      * precondition: current position is at a hyphen
      * postcondition: the line will have been completey consumed
      */
     private void listitem() {
         int start = position;
-        
+
         // Skip the hyphen, and require a space before the first symbol
-        if (next() != ' ') {
+        if (!hasNext() || next() != ' ') {
             error("List items must have a space between the hyphen and the first symbol.");
         }
-        
-        // Advance past the space
-        next();
-        
+
+        // Advance past the space, unless the item is empty
+        if (hasNext()) {
+            next();
+        } else {
+            position++;
+        }
+
         // Consume the rest of the line
-        String listitem = consume();
-        
+        int from = consume();
+
         // Add the listitem token
-        stream.add(new ListItemToken(listitem, line, lineCount, start));
+        stream.add(TokenType.LISTITEM, from, lineStart + lineLength, lineStart, lineCount, start);
     }
-    
+
     /**
      * precondition: current position is at a symbol (not # or -)
      * postcondition: the line will have been completely consumed
@@ -177,69 +245,87 @@ public class SymlLexer {
             if (c == ':') break;
             if (c == '#') error("Illegal character in key. The pound sign # is reserved for comments.");
         }
-        
+
         // Verify that there is, in fact, a colon now
         if (current() != ':') {
-            position = line.replaceAll("\\s+$", "").length(); // Trim trailing whitespace
+            position = trimmedLength(); // Trim trailing whitespace
             error("A key must always be followed by a colon.");
         }
-        
-        // If so, extract the key string.
-        String key = line.substring(start, position);
-        
-        // Add the tokens
-        stream.add(new KeyToken(key, line, lineCount, start));
-        stream.add(new ColonToken(line, lineCount, position));
-        
+
+        // If so, add the tokens
+        stream.add(TokenType.KEY, lineStart + start, lineStart + position, lineStart, lineCount, start);
+        stream.add(TokenType.COLON, -1, -1, lineStart, lineCount, position);
+
         // If no more symbols, or only whitespace, return
         if (!hasNext() || isRestWhitespace()) {
             return;
         }
-        
+
         // Otherwise, advance past the colon, and require a space
         if (next() != ' ') {
             error("There must be a space between the colon and the value.");
         }
-        
-        // Advance past the space
+
+        // Advance past the space, if there is anything after it
+        if (!hasNext()) {
+            return;
+        }
         next();
-        
+
         // Consume the remaining part of the line, and trim off whitespace
         start = position;
-        String value = consume().trim();
-        
+        int from = consume();
+        int to = lineStart + lineLength;
+        while (from < to && chars[from] <= ' ') from++;
+        while (to > from && chars[to - 1] <= ' ') to--;
+
         // If it's just whitespace, ignore it
-        if (value.length() == 0) {
+        if (from == to) {
             return;
         }
-        
+
         // Otherwise, make a value token
-        stream.add(new ValueToken(value, line, lineCount, start));
+        stream.add(TokenType.VALUE, from, to, lineStart, lineCount, start);
     }
-    
-    private String consume() {
-        String rest = line.substring(position);
-        position = rest.length();
-        return rest;
+
+    /**
+     * Consume the rest of the line.
+     * @return the offset in the buffer of the current position
+     */
+    private int consume() {
+        int from = lineStart + position;
+        position = lineLength - position;
+        return from;
     }
-    
+
     private boolean hasNext() {
-        return position < (line.length() - 1);
+        return position < (lineLength - 1);
     }
-    
+
     private char next() {
-        return line.charAt(++position);
+        return chars[lineStart + (++position)];
     }
-    
+
     private char current() {
-        return line.charAt(position);
+        return chars[lineStart + position];
     }
-    
+
     private boolean isRestWhitespace() {
-        return line.substring(position).trim().length() == 0;
+        for (int i = lineStart + position, end = lineStart + lineLength; i < end; i++) {
+            if (chars[i] > ' ') return false;
+        }
+        return true;
     }
-    
+
+    private int trimmedLength() {
+        int length = lineLength;
+        while (length > 0 && Character.isWhitespace(chars[lineStart + length - 1])) {
+            length--;
+        }
+        return length;
+    }
+
     private void error(String msg) {
-        throw new LexException(msg, input, line, lineCount, position + 1);
+        throw new LexException(msg, source, lineStart, lineCount, position + 1);
     }
 }
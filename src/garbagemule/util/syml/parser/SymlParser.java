@@ -1,23 +1,99 @@
 package garbagemule.util.syml.parser;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import garbagemule.util.syml.SymlKeys;
 import garbagemule.util.syml.SymlNode;
 import garbagemule.util.syml.parser.token.*;
 
 public class SymlParser implements TokenVisitor<Void> {
+    /**
+     * Texts are only split into chunks of at least this many characters.
+     */
+    private static final int MIN_CHUNK = 1 << 16;
+    
+    // States, named after where in a line the parser is
+    private static final int LINE_START     = 0;
+    private static final int AFTER_INDENT   = 1;
+    private static final int BEFORE_COMMENT = 2;
+    private static final int BEFORE_ITEM    = 3;
+    private static final int AFTER_KEY      = 4;
+    private static final int AFTER_COLON    = 5;
+    private static final int LINE_END       = 6;
+    
+    /**
+     * The token types expected in each state, in the order they are listed
+     * in error messages.
+     */
+    private static final TokenType[][] EXPECTED = {
+        { TokenType.INDENT },
+        { TokenType.KEY, TokenType.COMMENT, TokenType.LISTITEM },
+        { TokenType.COMMENT },
+        { TokenType.LISTITEM },
+        { TokenType.COLON },
+        { TokenType.VALUE, TokenType.LINEBREAK },
+        { TokenType.LINEBREAK }
+    };
+    
+    /**
+     * The expected token types of each state as a bitmask of ordinals, and
+     * the start of the error message for anything else.
+     */
+    private static final int[] MASKS = new int[EXPECTED.length];
+    private static final String[] MESSAGES = new String[EXPECTED.length];
+    
+    /**
+     * The state after a token of each type, by ordinal. Indents are
+     * narrowed down further by the token that follows them.
+     */
+    private static final int[] NEXT = new int[TokenType.values().length];
+    
+    static {
+        for (int state = 0; state < EXPECTED.length; state++) {
+            TokenType[] types = EXPECTED[state];
+            String all = "";
+            for (TokenType type : types) {
+                MASKS[state] |= 1 << type.ordinal();
+                all += type;
+            }
+            MESSAGES[state] = (types.length == 1 ? "Expected " : "Expected one of ") + all;
+        }
+        NEXT[TokenType.INDENT.ordinal()]    = AFTER_INDENT;
+        NEXT[TokenType.COMMENT.ordinal()]   = LINE_END;
+        NEXT[TokenType.KEY.ordinal()]       = AFTER_KEY;
+        NEXT[TokenType.COLON.ordinal()]     = AFTER_COLON;
+        NEXT[TokenType.VALUE.ordinal()]     = LINE_END;
+        NEXT[TokenType.LISTITEM.ordinal()]  = LINE_END;
+        NEXT[TokenType.LINEBREAK.ordinal()] = LINE_START;
+    }
+    
     private TokenStream tokens;
-    private List<TokenType> expected;
+    private int state;
     
     private StringBuilder comment;
+    private int commentOffset;
     private SymlNode node;
     private SymlNode parent;
+    private SymlKeys keys;
+    private NodeAccess access;
+    
+    // Whether the node has a value, and its list, which is only set on the
+    // node once all of its items have been read. The data of a key that
+    // appeared before is only looked up when it matters. And whether its
+    // key has periods in it
+    private boolean value;
+    private List<String> list;
+    private boolean known;
+    private boolean dotted;
+    private Scalar scalar = new Scalar();
     
     private int level;
-    private Map<Integer,Integer> indents;
+    private int[] indents;
 
     /**
      * Populate a given SymlNode from a given TokenStream.
@@ -32,225 +108,405 @@ public class SymlParser implements TokenVisitor<Void> {
         if (stream == null || root == null) {
             throw new NullPointerException();
         }
-        tokens   = stream;
-        parent   = root;
-        expected = new ArrayList<TokenType>();
+        tokens = stream;
+        parent = root;
+        keys   = root.getKeyPool();
+        access = NodeAccess.get();
+        state  = LINE_START;
 
         level = 0;
-        indents = new TreeMap<Integer,Integer>();
-        indents.put(0, 0);
+        indents = new int[16];
+        
+        // Hold the tree lock, so readers never see a half-parsed document
+        synchronized (root.getRoot()) {
+            try {
+                while (tokens.hasNext()) {
+                    tokens.accept(tokens.next(), this);
+                }
+            } finally {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Populate a given SymlNode from the given text, parsing independent
+     * parts of it in parallel.
+     * <p>The text is split in front of top-level keys, i.e. keys with no
+     * indent, which always start a new subtree of the root. The chunks are
+     * lexed and parsed into trees of their own on the given pool, and the
+     * subtrees are added to the root in document order. The result is the
+     * same as that of parsing the whole text with a single parser, and so
+     * are the exceptions, which come from the first chunk that fails, and
+     * have the line numbers of the whole text.
+     * <p>Texts that are too small to be worth splitting, or that have the
+     * same top-level key in more than one chunk, are parsed as a whole on
+     * the calling thread, and so is everything if the pool only has one
+     * thread. The root node should be empty.
+     * @param chars the character buffer of the text
+     * @param length the length of the text
+     * @param root a SymlNode which will act as a root node
+     * @param pool the pool to parse the chunks on
+     * @throws NullPointerException if any parameter is null
+     * @throws LexException if the data is not well-formed SYML
+     * @throws ParseException if the SYML is semantically incorrect
+     */
+    public static void parse(char[] chars, int length, SymlNode root, ForkJoinPool pool) {
+        if (chars == null || root == null || pool == null) {
+            throw new NullPointerException();
+        }
+        SourceText source = new SourceText(chars, length);
         
-        setExpected(TokenType.INDENT);
+        // With a single thread, splitting is all cost and no gain
+        int threads = pool.getParallelism();
+        List<Chunk> chunks = (threads > 1 ? split(source, Math.max(MIN_CHUNK, length / (threads * 4))) : null);
+        if (chunks == null) {
+            new SymlParser().parse(new SymlLexer().lex(source, 0, length, 0), root);
+            return;
+        }
+        // The chunks intern their keys in the pool of the root, which
+        // only locks for keys it doesn't have yet
+        SymlKeys keys = root.getKeyPool();
+        for (Chunk chunk : chunks) {
+            chunk.tree.setKeyPool(keys);
+            pool.execute(chunk);
+        }
         
-        while (tokens.hasNext()) {
-            tokens.next().accept(this);
+        // Graft the chunks up to and including the first one that failed,
+        // which leaves the root like a single parser would have
+        synchronized (root.getRoot()) {
+            for (Chunk chunk : chunks) {
+                chunk.join();
+                if (chunk.tree.getChildren() != null) {
+                    root.set(chunk.tree);
+                }
+                if (chunk.error != null) {
+                    throw chunk.error;
+                }
+            }
         }
     }
+    
+    /**
+     * Split the text in front of top-level keys, into chunks of at least
+     * the given size. A chunk starts with the comment lines right above
+     * its first key, which belong to that key. Comment lines right below
+     * list items are left alone, though, as there may be older comments
+     * that the parser still holds on to.
+     * @return the chunks, or null if the text should be parsed as a whole
+     */
+    private static List<Chunk> split(SourceText source, int size) {
+        char[] chars = source.chars();
+        int length = source.length();
+        if (length < size * 2) {
+            return null;
+        }
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        
+        // Top-level keys must not be spread over more than one chunk
+        Set<String> done = new HashSet<String>();
+        Set<String> keys = new HashSet<String>();
+        
+        int from = 0, first = 0;
+        int run = -1, runLine = 0;
+        boolean item = false;
+        
+        int line = 0;
+        for (int start = 0; start < length; line++) {
+            int end = source.lineEnd(start);
+            int i = start;
+            while (i < end && (chars[i] == ' ' || chars[i] == '\t')) {
+                i++;
+            }
+            if (isBlank(chars, i, end) || chars[i] == '#') {
+                if (run < 0) {
+                    run = start;
+                    runLine = line;
+                }
+            } else {
+                if (i == start && chars[i] != '-') {
+                    int at = (run >= 0 ? run : start);
+                    if (!item && at - from >= size) {
+                        chunks.add(new Chunk(source, from, at, first));
+                        done.addAll(keys);
+                        keys.clear();
+                        from  = at;
+                        first = (run >= 0 ? runLine : line);
+                    }
+                    String key = topKey(chars, start, end);
+                    if (done.contains(key)) {
+                        return null;
+                    }
+                    keys.add(key);
+                }
+                item = (chars[i] == '-');
+                run = -1;
+            }
+            start = source.nextLine(end);
+        }
+        if (chunks.isEmpty()) {
+            return null;
+        }
+        chunks.add(new Chunk(source, from, length, first));
+        return chunks;
+    }
+    
+    private static boolean isBlank(char[] chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (chars[i] > ' ') return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Get the top-level node that a key line ends up in. Dotted keys end
+     * up in the node named by their first part, and the name is trimmed,
+     * which can only make different keys look the same, never the other
+     * way around.
+     */
+    private static String topKey(char[] chars, int start, int end) {
+        int i = start;
+        while (i < end && chars[i] != ':' && chars[i] != '.' && chars[i] != '#') {
+            i++;
+        }
+        while (i > start && chars[i - 1] <= ' ') {
+            i--;
+        }
+        return new String(chars, start, i - start);
+    }
 
     @Override
-    public Void visitIndent(IndentToken token) {
-        assertExpected(token);
+    public Void visitIndent(TokenStream tokens, int token) {
+        accept(token);
         
         // If we're dealing with a comment, just smile and wave
-        if (tokens.peek().getType() == TokenType.COMMENT) {
-            setExpected(TokenType.COMMENT);
+        if (tokens.type(tokens.peek()) == TokenType.COMMENT) {
+            state = BEFORE_COMMENT;
             return null;
         }
         
         // If we're dealing with list items, don't do peep!
-        if (tokens.peek().getType() == TokenType.LISTITEM) {
-            setExpected(TokenType.LISTITEM);
+        if (tokens.type(tokens.peek()) == TokenType.LISTITEM) {
+            state = BEFORE_ITEM;
             return null;
         }
         
         // Get the indent amount of the token
-        int newIndent = token.value().length();
+        int newIndent = tokens.amount(token);
         
         // And the current indent amount
-        int currentIndent = indents.get(level);
+        int currentIndent = indents[level];
         
         // Higher value -> deeper indent level
         if (newIndent > currentIndent) {
-            if (node == null || node.get() != null) {
+            if (node != null) {
+                lookup();
+            }
+            if (node == null || value || list != null) {
                 error("Indent mismatch 1! Expected " + currentIndent + " spaces, but found " + newIndent, token);
             }
-            level++;
-            indents.put(level, newIndent);
+            // Going back out of the children of a key with periods in it
+            // only climbs as far as the nodes along the way, so the lines
+            // after them end up deeper than their indent says. Nothing can
+            // be spliced in after that, so a save emits the whole document
+            if (dotted) {
+                for (SymlNode above = node.getParent(); above.getParent() != null; above = above.getParent()) {
+                    access.scatter(above);
+                }
+            }
+            if (++level == indents.length) {
+                int[] bigger = new int[indents.length * 2];
+                System.arraycopy(indents, 0, bigger, 0, indents.length);
+                indents = bigger;
+            }
+            indents[level] = newIndent;
             parent = node;
         } else if (newIndent < currentIndent) {
             int originalIndent = currentIndent;
             while (newIndent < currentIndent) {
                 parent = parent.getParent();
                 level--;
-                currentIndent = indents.get(level);
+                currentIndent = indents[level];
             }
             if (newIndent != currentIndent) {
                 error("Indent mismatch 2! Expected " + originalIndent + " spaces, but found only " + newIndent, token);
             }
         }
-        
-        setExpected(TokenType.KEY, TokenType.COMMENT, TokenType.LISTITEM);
         return null;
     }
 
     @Override
-    public Void visitComment(CommentToken token) {
-        assertExpected(token);
+    public Void visitComment(TokenStream tokens, int token) {
+        accept(token);
         
         if (comment == null) {
             comment = new StringBuilder();
+            commentOffset = tokens.offset(token);
         }
         
         // Extract the actual comment
-        String str = token.value();
+        int start = tokens.start(token);
+        int end = tokens.end(token);
         
         // Distinguish between empty lines and empty comment-lines
-        if (str != null) {
-            comment.append(str.equals("") ? " " : str);
+        if (start >= 0) {
+            if (start == end) {
+                comment.append(' ');
+            } else {
+                comment.append(tokens.chars(), start, end - start);
+            }
         }
         comment.append('\n');
-        
-        setExpected(TokenType.LINEBREAK);
         return null;
     }
 
     @Override
-    public Void visitKey(KeyToken token) {
-        assertExpected(token);
+    public Void visitKey(TokenStream tokens, int token) {
+        accept(token);
+        flush();
         
         // Create the node as a child of the current parent
-        node = parent.createChild(token.value());
+        String key = keys.intern(tokens.chars(), tokens.start(token), tokens.end(token));
+        node = parent.createChild(key);
+        value = false;
+        list = null;
+        known = false;
         
-        // Consume comment, if any
+        // Periods make nodes along the way, which have no text of their own
+        dotted = (key.indexOf('.') >= 0);
+        if (dotted) {
+            for (SymlNode between = node.getParent(); between != parent; between = between.getParent()) {
+                access.scatter(between);
+            }
+        }
+        
+        // Consume comment, if any, and remember where the node's text starts
         if (comment != null) {
             node.setComment(comment.toString());
+            access.setSourceOffset(node, commentOffset);
             comment = null;
+        } else {
+            access.setSourceOffset(node, tokens.offset(token));
         }
-        
-        setExpected(TokenType.COLON);
         return null;
     }
 
     @Override
-    public Void visitValue(ValueToken token) {
-        assertExpected(token);
-        
-        // Trim the whitespace off
-        String trim = token.value().trim();
-        
-        // Prepare the data object
-        Object data = null;
-        
-        // The following blob is okay because FUCK YOU, that's why!
-        if ((data = tryBoolean(trim)) != null) ;
-        else if ((data = tryNumber(trim)) != null) ;
-        else data = trim;
+    public Void visitValue(TokenStream tokens, int token) {
+        accept(token);
         
-        // Set the data
-        node.set(data);
-        
-        setExpected(TokenType.LINEBREAK);
+        // The lexer trims the value, so type it straight from the buffer
+        switch (scalar.parse(tokens.chars(), tokens.start(token), tokens.end(token))) {
+            case Scalar.BOOLEAN: node.setBoolean(scalar.booleanValue()); break;
+            case Scalar.INT:     node.setInt(scalar.intValue());         break;
+            case Scalar.LONG:    node.setLong(scalar.longValue());       break;
+            case Scalar.DOUBLE:  node.setDouble(scalar.doubleValue());   break;
+            default:             node.set(tokens.value(token));          break;
+        }
+        value = true;
+        list = null;
+        known = true;
         return null;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public Void visitListItem(ListItemToken token) {
-        assertExpected(token);
+    public Void visitListItem(TokenStream tokens, int token) {
+        accept(token);
         
-        Object data = node.get();
-        if (data == null) {
-            List<String> list = new ArrayList<String>();
-            list.add(token.value());
-            node.set(list);
-        } else {
-            if (!(data instanceof List<?>)) {
-                error("Unexpected data object in node.", token);
-            }
-            List<String> list = (List<String>) data;
-            list.add(token.value());
+        if (node == null) {
+            error("Unexpected list item outside of node.", token);
         }
-        
-        setExpected(TokenType.LINEBREAK);
+        lookup();
+        if (value) {
+            error("Unexpected data object in node.", token);
+        }
+        if (list == null) {
+            list = new ArrayList<String>();
+        }
+        list.add(tokens.value(token));
         return null;
     }
 
     @Override
-    public Void visitLineBreak(LineBreakToken token) {
-        assertExpected(token);
-        
-        setExpected(TokenType.INDENT);
+    public Void visitLineBreak(TokenStream tokens, int token) {
+        accept(token);
         return null;
     }
 
     @Override
-    public Void visitColon(ColonToken token) {
-        assertExpected(token);
-        
-        setExpected(TokenType.VALUE, TokenType.LINEBREAK);
+    public Void visitColon(TokenStream tokens, int token) {
+        accept(token);
         return null;
     }
     
-    private Boolean tryBoolean(String s) {
-        s = s.toLowerCase();
-        if (s.equals("true")) {
-            return true;
-        } else if (s.equals("false")) {
-            return false;
+    /**
+     * Find out what the current node holds, if it isn't known yet, i.e. if
+     * its key appeared before.
+     */
+    @SuppressWarnings("unchecked")
+    private void lookup() {
+        if (!known) {
+            Object data = access.peek(node);
+            if (data instanceof List<?>) {
+                list = new ArrayList<String>((List<String>) data);
+            } else {
+                value = (data != null);
+            }
+            known = true;
         }
-        return null;
     }
     
-    private Number tryNumber(String s) {
-        // Allow the minus, but skip it
-        int start = (s.startsWith("-") ? 1 : 0);
-        
-        // Set to true if a period is found
-        boolean seenPeriod = false;
-        
-        // True, if we may need a long
-        boolean useLong = (s.length() - start) > 9;
-        
-        for (int i = start; i < s.length(); i++) {
-            char c = s.charAt(i);
-            
-            if (c == '.') {
-                if (seenPeriod) {
-                    return null;
-                }
-                seenPeriod = true;
-                continue;
-            }
-            if (!Character.isDigit(s.charAt(i))) {
-                return null;
-            }
+    /**
+     * Set the list of the current node, if it has one.
+     */
+    private void flush() {
+        if (list != null) {
+            node.set(list);
+            list = null;
         }
-        if (seenPeriod) return Double.parseDouble(s);
-        if (useLong)    return Long.parseLong(s);
-        return Integer.parseInt(s);
     }
     
-    private void setExpected(TokenType... types) {
-        expected.clear();
-        for (TokenType type : types) {
-            expected.add(type);
+    /**
+     * Check that the token is expected in the current state, and move on
+     * to the state after it.
+     */
+    private void accept(int token) {
+        TokenType type = tokens.type(token);
+        if ((MASKS[state] & (1 << type.ordinal())) == 0) {
+            error(MESSAGES[state] + ", but found " + type, token);
         }
+        state = NEXT[type.ordinal()];
     }
     
-    private void assertExpected(Token token) {
-        TokenType type = token.getType();
-        if (!expected.contains(type)) {
-            if (expected.size() == 1) {
-                error("Expected " + expected.get(0) + ", but found " + type, token);
-            } else {
-                String all = "";
-                for (TokenType t : expected) all += t;
-                error("Expected one of " + all + ", but found " + type, token);
-            }
-        }
+    private void error(String msg, int token) {
+        throw new ParseException(msg, tokens.source(), tokens.offset(token), tokens.line(token), tokens.column(token));
     }
     
-    private void error(String msg, Token token) {
-        throw new ParseException(msg, token);
+    /**
+     * A range of lines, parsed into a tree of its own.
+     */
+    @SuppressWarnings("serial")
+    private static class Chunk extends RecursiveAction {
+        private final SourceText source;
+        private final int from, to, line;
+        private final SymlNode tree = new SymlNode("");
+        private RuntimeException error;
+        
+        private Chunk(SourceText source, int from, int to, int line) {
+            this.source = source;
+            this.from   = from;
+            this.to     = to;
+            this.line   = line;
+        }
+        
+        @Override
+        protected void compute() {
+            try {
+                new SymlParser().parse(new SymlLexer().lex(source, from, to, line), tree);
+            } catch (RuntimeException e) {
+                // Only the first error in the document is thrown
+                error = e;
+            }
+        }
     }
 }
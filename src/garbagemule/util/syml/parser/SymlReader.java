@@ -0,0 +1,390 @@
+package garbagemule.util.syml.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import garbagemule.util.syml.parser.token.*;
+
+/**
+ * The SymlReader reads a SYML document as a stream of {@link SymlEvent}s,
+ * straight from the tokens of a {@link SymlLexer}, without building a
+ * tree. Events are either pulled with hasNext() and next(), or pushed to a
+ * {@link SymlHandler} with read(SymlHandler).
+ *
+ * <p>A key is followed by its value, if it has one, or its list items,
+ * if it has any. A key with children is followed by START_SECTION, then
+ * the children, and then END_SECTION. Comments are reported where they
+ * appear, even though the parser hands them to the key that follows them,
+ * and blank lines are skipped. Keys with periods in them are reported as
+ * they are written.
+ *
+ * <p>The reader follows the rules of the parser, and throws the same
+ * exceptions for the same documents, but only when it gets to them. The
+ * only difference is a key that appears more than once in a section, which
+ * the parser merges with what it already holds, or rejects, and which
+ * the reader just reports again, as it doesn't remember the keys. A
+ * document that is read from a Reader is lexed in windows of whole lines,
+ * so a reader only ever holds a few thousand characters of it, or the
+ * longest line, if that is longer. The text of an event is only valid
+ * until the next call to hasNext() or next(), and an exception only has
+ * the lines of the current window as its input.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlReader {
+    private static final int WINDOW = 8192;
+
+    private final SymlLexer lexer = new SymlLexer();
+    private final Scalar scalar = new Scalar();
+
+    // The input, or null if it is all in the buffer, and the window of
+    // whole lines of the buffer that the tokens come from
+    private Reader in;
+    private char[] buffer;
+    private int cut, filled, lines;
+    private TokenStream tokens;
+
+    // The events of the current line, as event, start and end
+    private SymlEvent[] events = new SymlEvent[8];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int head, count;
+    private boolean done;
+
+    // The current event
+    private SymlEvent event;
+    private int start, end, line, depth;
+
+    // The indents of the open sections, and what the last key holds
+    private int[] indents = new int[16];
+    private int level;
+    private boolean key, value, list;
+
+    /**
+     * Create a reader for everything the given Reader has left.
+     * <p>The Reader is read as events are asked for, but not closed.
+     * @param in the input Reader
+     * @throws NullPointerException if the Reader is null
+     */
+    public SymlReader(Reader in) {
+        if (in == null) {
+            throw new NullPointerException();
+        }
+        this.in = in;
+        this.buffer = new char[WINDOW];
+    }
+
+    /**
+     * Create a reader for the given String.
+     * @param input the input String
+     * @throws NullPointerException if the String is null
+     */
+    public SymlReader(String input) {
+        this(input.toCharArray(), input.length());
+    }
+
+    /**
+     * Create a reader for the first length characters of the given buffer.
+     * <p>The events refer to the buffer rather than copying out of it, so
+     * it must not be changed while they are in use.
+     * @param chars the input buffer
+     * @param length the number of characters to read
+     * @throws NullPointerException if the buffer is null
+     */
+    public SymlReader(char[] chars, int length) {
+        this.buffer = chars;
+        this.tokens = lexer.lex(chars, length);
+    }
+
+    /**
+     * Check if there are more events.
+     * @return true, if there are more events, false otherwise
+     * @throws IOException if the Reader throws one
+     * @throws LexException if the data is not well-formed SYML
+     * @throws ParseException if the SYML is semantically incorrect
+     */
+    public boolean hasNext() throws IOException {
+        while (count == 0) {
+            if (!line()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move on to the next event.
+     * @return the next event
+     * @throws IOException if the Reader throws one
+     * @throws LexException if the data is not well-formed SYML
+     * @throws ParseException if the SYML is semantically incorrect
+     */
+    public SymlEvent next() throws IOException {
+        if (!hasNext()) {
+            throw new IndexOutOfBoundsException("No more events.");
+        }
+        int i = head++;
+        count--;
+        event = events[i];
+        start = starts[i];
+        end   = ends[i];
+        if (event == SymlEvent.START_SECTION) {
+            depth++;
+        } else if (event == SymlEvent.END_SECTION) {
+            depth--;
+        }
+        return event;
+    }
+
+    /**
+     * Get the event last returned by next().
+     * @return the current event, or null if there is none yet
+     */
+    public SymlEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * Get the text of the current event: the key, the value, the list item,
+     * or the text after the pound sign of the comment.
+     * @return the text of the event, or null for START_SECTION and
+     * END_SECTION
+     */
+    public String getText() {
+        return (start >= 0 ? new String(tokens.chars(), start, end - start) : null);
+    }
+
+    /**
+     * Get the value of the current event. Values are typed like in a
+     * SymlNode tree, i.e. they are Booleans, Integers, Longs, Doubles or
+     * Strings, and everything else is the same as getText().
+     * @return the value of the event
+     */
+    public Object getValue() {
+        if (event != SymlEvent.SCALAR) {
+            return getText();
+        }
+        char[] chars = tokens.chars();
+        switch (scalar.parse(chars, start, end)) {
+            case Scalar.BOOLEAN: return scalar.booleanValue();
+            case Scalar.INT:     return scalar.intValue();
+            case Scalar.LONG:    return scalar.longValue();
+            case Scalar.DOUBLE:  return scalar.doubleValue();
+            default:             return new String(chars, start, end - start);
+        }
+    }
+
+    /**
+     * Get the number of the line of the current event.
+     * @return the line number, counting from 1
+     */
+    public int getLineNumber() {
+        return line;
+    }
+
+    /**
+     * Get the number of sections that are open, as of the current event.
+     * @return the depth of the event, 0 being the top level
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Push the rest of the events to the given handler, until the end of
+     * the document, or until the handler asks to stop.
+     * @param handler the handler
+     * @return true, if the whole document was read, false if the handler
+     * stopped
+     * @throws IOException if the Reader throws one
+     * @throws LexException if the data is not well-formed SYML
+     * @throws ParseException if the SYML is semantically incorrect
+     */
+    public boolean read(SymlHandler handler) throws IOException {
+        while (hasNext()) {
+            boolean more;
+            switch (next()) {
+                case START_SECTION: more = handler.startSection();       break;
+                case KEY:           more = handler.key(getText());       break;
+                case SCALAR:        more = handler.scalar(getValue());   break;
+                case LIST_ITEM:     more = handler.listItem(getText());  break;
+                case COMMENT:       more = handler.comment(getText());   break;
+                default:            more = handler.endSection();         break;
+            }
+            if (!more) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turn the next line into events, like the parser would turn it into
+     * nodes.
+     * @return true, if there was another line, or the sections still open
+     * at the end, false otherwise
+     */
+    private boolean line() throws IOException {
+        head = 0;
+        while (tokens == null || !tokens.hasNext()) {
+            if (!window()) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+                for (; level > 0; level--) {
+                    add(SymlEvent.END_SECTION, -1, -1);
+                }
+                return true;
+            }
+        }
+
+        // Every line is an indent, then one of these, then a line break
+        int indent = tokens.next();
+        int token = tokens.next();
+        line = tokens.line(token);
+        switch (tokens.type(token)) {
+            case COMMENT:
+                // Blank lines have no value
+                if (tokens.start(token) >= 0) {
+                    add(SymlEvent.COMMENT, tokens.start(token), tokens.end(token));
+                }
+                break;
+            case LISTITEM:
+                if (!key) {
+                    error("Unexpected list item outside of node.", token);
+                }
+                if (value) {
+                    error("Unexpected data object in node.", token);
+                }
+                list = true;
+                add(SymlEvent.LIST_ITEM, tokens.start(token), tokens.end(token));
+                break;
+            default:
+                section(indent);
+                add(SymlEvent.KEY, tokens.start(token), tokens.end(token));
+                key   = true;
+                value = false;
+                list  = false;
+
+                tokens.next(); // The colon
+                if (tokens.type(tokens.peek()) == TokenType.VALUE) {
+                    token = tokens.next();
+                    add(SymlEvent.SCALAR, tokens.start(token), tokens.end(token));
+                    value = true;
+                }
+                break;
+        }
+        tokens.next(); // The line break
+        return true;
+    }
+
+    /**
+     * Open or close sections for the indent of a key line.
+     */
+    private void section(int token) {
+        int newIndent = tokens.amount(token);
+        int currentIndent = indents[level];
+
+        if (newIndent > currentIndent) {
+            if (!key || value || list) {
+                error("Indent mismatch 1! Expected " + currentIndent + " spaces, but found " + newIndent, token);
+            }
+            if (++level == indents.length) {
+                indents = Arrays.copyOf(indents, level * 2);
+            }
+            indents[level] = newIndent;
+            add(SymlEvent.START_SECTION, -1, -1);
+        } else if (newIndent < currentIndent) {
+            while (newIndent < indents[level]) {
+                level--;
+                add(SymlEvent.END_SECTION, -1, -1);
+            }
+            if (newIndent != indents[level]) {
+                error("Indent mismatch 2! Expected " + currentIndent + " spaces, but found only " + newIndent, token);
+            }
+        }
+    }
+
+    private void add(SymlEvent event, int start, int end) {
+        int i = head + count++;
+        if (i == events.length) {
+            events = Arrays.copyOf(events, i * 2);
+            starts = Arrays.copyOf(starts, i * 2);
+            ends   = Arrays.copyOf(ends, i * 2);
+        }
+        events[i] = event;
+        starts[i] = start;
+        ends[i]   = end;
+    }
+
+    /**
+     * Lex the next window of whole lines of the input. The rest of the
+     * last line that didn't fit moves to the front of the buffer, and the
+     * buffer only grows if not even one line fits.
+     * @return true, if there was more input, false otherwise
+     */
+    private boolean window() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+        filled -= cut;
+
+        boolean eof = false;
+        while (true) {
+            while (filled < buffer.length) {
+                int read = in.read(buffer, filled, buffer.length - filled);
+                if (read == -1) {
+                    eof = true;
+                    break;
+                }
+                filled += read;
+            }
+            cut = (eof ? filled : lastBreak());
+            if (cut > 0 || eof) {
+                break;
+            }
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        if (eof) {
+            in = null;
+        }
+        if (cut == 0) {
+            return false;
+        }
+
+        tokens = lexer.lex(new SourceText(buffer, cut), 0, cut, lines);
+        for (int i = 0; i < cut; i++) {
+            char c = buffer[i];
+            if (c == '\n' || (c == '\r' && (i + 1 == cut || buffer[i + 1] != '\n'))) {
+                lines++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the offset after the last line break in the buffer. A carriage
+     * return at the very end doesn't count, as a line feed may follow.
+     * @return the offset after the last line break, or 0 if there is none
+     */
+    private int lastBreak() {
+        if (buffer[filled - 1] == '\n') {
+            return filled;
+        }
+        for (int i = filled - 2; i >= 0; i--) {
+            char c = buffer[i];
+            if (c == '\n' || c == '\r') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void error(String msg, int token) {
+        throw new ParseException(msg, tokens.source(), tokens.offset(token), tokens.line(token), tokens.column(token));
+    }
+}
@@ -2,43 +2,43 @@ package garbagemule.util.syml.parser.token;
 
 public class PrinterVisitor implements TokenVisitor<Void> {
     @Override
-    public Void visitIndent(IndentToken token) {
-        System.out.print(token.value());
+    public Void visitIndent(TokenStream tokens, int token) {
+        System.out.print(tokens.value(token));
         return null;
     }
 
     @Override
-    public Void visitLineBreak(LineBreakToken token) {
+    public Void visitLineBreak(TokenStream tokens, int token) {
         System.out.print('\n');
         return null;
     }
 
     @Override
-    public Void visitComment(CommentToken token) {
-        System.out.print("#" + token.value());
+    public Void visitComment(TokenStream tokens, int token) {
+        System.out.print("#" + tokens.value(token));
         return null;
     }
 
     @Override
-    public Void visitKey(KeyToken token) {
-        System.out.print(token.value());
+    public Void visitKey(TokenStream tokens, int token) {
+        System.out.print(tokens.value(token));
         return null;
     }
 
     @Override
-    public Void visitValue(ValueToken token) {
-        System.out.print(token.value());
+    public Void visitValue(TokenStream tokens, int token) {
+        System.out.print(tokens.value(token));
         return null;
     }
 
     @Override
-    public Void visitListItem(ListItemToken token) {
-        System.out.print("- " + token.value());
+    public Void visitListItem(TokenStream tokens, int token) {
+        System.out.print("- " + tokens.value(token));
         return null;
     }
 
     @Override
-    public Void visitColon(ColonToken token) {
+    public Void visitColon(TokenStream tokens, int token) {
         System.out.print(": ");
         return null;
     }
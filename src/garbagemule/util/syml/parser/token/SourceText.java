@@ -0,0 +1,108 @@
+package garbagemule.util.syml.parser.token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SourceText class wraps the character buffer a document was lexed
+ * from. Tokens refer to their text by offsets into the buffer, and only
+ * create Strings when asked for them.
+ * 
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SourceText {
+    private final char[] chars;
+    private final int length;
+    
+    /**
+     * Create a new SourceText over the first length characters of the
+     * given buffer. The buffer is not copied, so it must not be changed
+     * while the SourceText is in use.
+     * @param chars the character buffer
+     * @param length the number of characters in use
+     */
+    public SourceText(char[] chars, int length) {
+        this.chars = chars;
+        this.length = length;
+    }
+    
+    /**
+     * Get the underlying character buffer.
+     * @return the character buffer
+     */
+    public char[] chars() {
+        return chars;
+    }
+    
+    /**
+     * Get the number of characters in use.
+     * @return the length of the text
+     */
+    public int length() {
+        return length;
+    }
+    
+    /**
+     * Create a String from a range of the text.
+     * @param start the offset of the first character
+     * @param end the offset after the last character
+     * @return the text in the range
+     */
+    public String substring(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+    
+    /**
+     * Find the end of the line starting at the given offset, i.e. the
+     * offset of the line terminator, or the end of the text.
+     * @param lineStart the offset of the first character of the line
+     * @return the offset after the last character of the line
+     */
+    public int lineEnd(int lineStart) {
+        int i = lineStart;
+        while (i < length && chars[i] != '\n' && chars[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+    
+    /**
+     * Get the line starting at the given offset, without the terminator.
+     * @param lineStart the offset of the first character of the line
+     * @return the line
+     */
+    public String line(int lineStart) {
+        return substring(lineStart, lineEnd(lineStart));
+    }
+    
+    /**
+     * Split the text into lines. Lines may end in "\n", "\r" or "\r\n".
+     * @return a list of lines, without terminators
+     */
+    public List<String> lines() {
+        List<String> result = new ArrayList<String>();
+        int start = 0;
+        while (start < length) {
+            int end = lineEnd(start);
+            result.add(substring(start, end));
+            start = nextLine(end);
+        }
+        return result;
+    }
+    
+    /**
+     * Get the offset of the line after the given line end.
+     * @param lineEnd the offset of a line terminator, or the end of text
+     * @return the offset of the first character of the next line
+     */
+    public int nextLine(int lineEnd) {
+        if (lineEnd >= length) {
+            return length;
+        }
+        if (chars[lineEnd] == '\r' && lineEnd + 1 < length && chars[lineEnd + 1] == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+}
@@ -1,42 +1,307 @@
 package garbagemule.util.syml.parser.token;
 
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * The TokenStream class is a pull-based iterator over tokens.
+ * <p>A stream may be filled up front with add(...), or be backed by a
+ * {@link Producer}, which is asked for more tokens whenever the stream
+ * runs dry. With a producer, only a small window of tokens is in memory
+ * at any time.
+ * <p>Tokens are not objects, but indices into the stream, which keeps
+ * their fields in parallel arrays: the type, the range of the value in the
+ * source text, and the offset, number and column of the line. The arrays
+ * are a ring, so a token is only valid until the token after it has been
+ * handed out by next(), and tokens that are read as they are produced
+ * reuse the same few slots over and over.
+ */
 public class TokenStream {
-    private List<Token> tokens;
-    private int position;
+    /**
+     * A source of tokens for a TokenStream, e.g. a lexer.
+     */
+    public interface Producer {
+        /**
+         * Add at least one token to the stream, unless there are none left.
+         * @param stream the stream to add tokens to
+         * @return true, if more tokens may follow, false otherwise
+         */
+        public boolean produce(TokenStream stream);
+    }
+    
+    private static final TokenType[] TYPES = TokenType.values();
+    
+    private SourceText source;
+    private Producer producer;
     
-    public TokenStream() {
-        tokens = new ArrayList<Token>();
-        position = -1;
+    // The tokens, by index modulo the capacity
+    private byte[] types;
+    private int[] starts, ends;
+    private int[] offsets, lines, columns;
+    private int mask;
+    
+    // The oldest token still held, the next one to read, and the next
+    // one to write
+    private int first, head, tail;
+    private int current = -1;
+    
+    public TokenStream(SourceText source) {
+        this(source, null);
+    }
+    
+    public TokenStream(SourceText source, Producer producer) {
+        this.source   = source;
+        this.producer = producer;
+        allocate(16);
+    }
+    
+    private void allocate(int capacity) {
+        types   = new byte[capacity];
+        starts  = new int[capacity];
+        ends    = new int[capacity];
+        offsets = new int[capacity];
+        lines   = new int[capacity];
+        columns = new int[capacity];
+        mask    = capacity - 1;
+    }
+    
+    /**
+     * Add a token.
+     * @param type the type of the token
+     * @param start the offset of the first character of the value of the
+     * token in the source text, or -1 if it has no value
+     * @param end the offset after the last character of the value
+     * @param offset the offset of the line of the token in the source text
+     * @param line the line number of the token
+     * @param column the column number of the token
+     */
+    public void add(TokenType type, int start, int end, int offset, int line, int column) {
+        if (tail - first > mask) {
+            grow();
+        }
+        int i = tail++ & mask;
+        types[i]   = (byte) type.ordinal();
+        starts[i]  = start;
+        ends[i]    = end;
+        offsets[i] = offset;
+        lines[i]   = line;
+        columns[i] = column;
     }
     
-    public void add(Token token) {
-        tokens.add(token);
+    /**
+     * Add an indent token. Indents have no value, only a width.
+     * @param amount the width of the indent in spaces, with tabs expanded
+     * to the next multiple of four
+     * @param offset the offset of the line of the token in the source text
+     * @param line the line number of the token
+     * @param column the column number of the token
+     */
+    public void addIndent(int amount, int offset, int line, int column) {
+        add(TokenType.INDENT, -1, amount, offset, line, column);
+    }
+    
+    private void grow() {
+        byte[] oldTypes = types;
+        int[] oldStarts = starts, oldEnds = ends;
+        int[] oldOffsets = offsets, oldLines = lines, oldColumns = columns;
+        int oldMask = mask;
+    
+        allocate((mask + 1) * 2);
+        for (int k = first; k != tail; k++) {
+            int from = k & oldMask;
+            int to   = k & mask;
+            types[to]   = oldTypes[from];
+            starts[to]  = oldStarts[from];
+            ends[to]    = oldEnds[from];
+            offsets[to] = oldOffsets[from];
+            lines[to]   = oldLines[from];
+            columns[to] = oldColumns[from];
+        }
     }
     
     public boolean hasNext() {
-        return position < tokens.size() - 1;
+        while (head == tail && producer != null) {
+            if (!producer.produce(this)) {
+                producer = null;
+            }
+        }
+        return head != tail;
+    }
+    
+    /**
+     * Move on to the next token. The previous one is no longer valid.
+     * @return the next token
+     */
+    public int next() {
+        if (!hasNext()) {
+            throw new IndexOutOfBoundsException("No more tokens.");
+        }
+        current = head++;
+        first = current;
+        return current;
+    }
+    
+    /**
+     * Get the next token without moving on to it.
+     * @return the next token
+     */
+    public int peek() {
+        if (!hasNext()) {
+            throw new IndexOutOfBoundsException("No more tokens.");
+        }
+        return head;
+    }
+    
+    /**
+     * Get the token last returned by next().
+     * @return the current token, or -1 if there is none yet
+     */
+    public int current() {
+        return current;
+    }
+    
+    /**
+     * Pull all remaining tokens from the producer into memory.
+     * <p>Any errors in the input will surface here rather than while
+     * iterating over the stream.
+     * @return this stream
+     */
+    public TokenStream fill() {
+        while (producer != null) {
+            if (!producer.produce(this)) {
+                producer = null;
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * Call the visit method of the given visitor for the type of the
+     * given token.
+     * @param token a token of this stream
+     * @param visitor the visitor
+     * @return the result of the visit method
+     */
+    public <T> T accept(int token, TokenVisitor<T> visitor) {
+        switch (TYPES[types[token & mask]]) {
+            case INDENT:    return visitor.visitIndent(this, token);
+            case COMMENT:   return visitor.visitComment(this, token);
+            case KEY:       return visitor.visitKey(this, token);
+            case COLON:     return visitor.visitColon(this, token);
+            case VALUE:     return visitor.visitValue(this, token);
+            case LISTITEM:  return visitor.visitListItem(this, token);
+            default:        return visitor.visitLineBreak(this, token);
+        }
+    }
+    
+    /**
+     * Get the source text the tokens refer to.
+     * @return the source text
+     */
+    public SourceText source() {
+        return source;
+    }
+    
+    /**
+     * Get the buffer the values are in, for reading them without
+     * creating Strings.
+     * @return the character buffer of the source text
+     */
+    public char[] chars() {
+        return source.chars();
+    }
+    
+    public TokenType type(int token) {
+        return TYPES[types[token & mask]];
     }
     
-    public Token next() {
-        return tokens.get(++position);
+    /**
+     * Get the offset of the first character of the value of a token.
+     * @param token a token of this stream
+     * @return the start offset, negative if there is no value
+     */
+    public int start(int token) {
+        return starts[token & mask];
     }
     
-    public Token peek() {
-        return tokens.get(position + 1);
+    /**
+     * Get the offset after the last character of the value of a token.
+     * @param token a token of this stream
+     * @return the end offset
+     */
+    public int end(int token) {
+        return ends[token & mask];
     }
     
-    public Token current() {
-        return tokens.get(position);
+    /**
+     * Get the width of an indent token in spaces, with tabs expanded to
+     * the next multiple of four.
+     * @param token an indent token of this stream
+     * @return the width of the indent
+     */
+    public int amount(int token) {
+        return ends[token & mask];
+    }
+    
+    /**
+     * Get the value of a token. Indents are as many spaces as they are
+     * wide, and colons, line breaks and empty lines have no value.
+     * @param token a token of this stream
+     * @return the value of the token, or null
+     */
+    public String value(int token) {
+        int i = token & mask;
+        if (types[i] == TokenType.INDENT.ordinal()) {
+            StringBuilder buffy = new StringBuilder(ends[i]);
+            for (int k = 0; k < ends[i]; k++) {
+                buffy.append(' ');
+            }
+            return buffy.toString();
+        }
+        return (starts[i] < 0 ? null : source.substring(starts[i], ends[i]));
+    }
+    
+    /**
+     * Get the offset of the line of a token in the source text.
+     * @param token a token of this stream
+     * @return the offset of the first character of the line
+     */
+    public int offset(int token) {
+        return offsets[token & mask];
+    }
+    
+    public int line(int token) {
+        return lines[token & mask];
+    }
+    
+    public int column(int token) {
+        return columns[token & mask];
+    }
+    
+    /**
+     * Get a representation of a token.
+     * @param token a token of this stream
+     * @return the representation of the token
+     */
+    public String toString(int token) {
+        TokenType type = type(token);
+        switch (type) {
+            case INDENT:
+                return "INDENT[amount=" + amount(token) + "]";
+            case COLON:
+            case LINEBREAK:
+                return type.toString();
+            default:
+                return type + "[\"" + value(token) + "\"]";
+        }
     }
     
+    /**
+     * Get a representation of the tokens currently held by the stream.
+     * Note that tokens which have not been produced yet are not included.
+     */
     @Override
     public String toString() {
         StringBuilder buffy = new StringBuilder();
-        for (Token token : tokens) {
-            buffy.append(token.toString()).append("\n");
+        for (int token = head; token != tail; token++) {
+            buffy.append(toString(token)).append("\n");
         }
         return buffy.toString();
     }
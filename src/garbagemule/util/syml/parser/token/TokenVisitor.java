@@ -1,17 +1,22 @@
 package garbagemule.util.syml.parser.token;
 
+/**
+ * A visitor over the tokens of a {@link TokenStream}, called through the
+ * accept(int, TokenVisitor) method of the stream. Tokens are indices into
+ * the stream, which holds their fields.
+ */
 public interface TokenVisitor<T> {
-    public T visitIndent(IndentToken token);
+    public T visitIndent(TokenStream tokens, int token);
     
-    public T visitLineBreak(LineBreakToken token);
+    public T visitLineBreak(TokenStream tokens, int token);
     
-    public T visitComment(CommentToken token);
+    public T visitComment(TokenStream tokens, int token);
     
-    public T visitKey(KeyToken token);
+    public T visitKey(TokenStream tokens, int token);
     
-    public T visitValue(ValueToken token);
+    public T visitValue(TokenStream tokens, int token);
     
-    public T visitListItem(ListItemToken token);
+    public T visitListItem(TokenStream tokens, int token);
     
-    public T visitColon(ColonToken token);
+    public T visitColon(TokenStream tokens, int token);
 }
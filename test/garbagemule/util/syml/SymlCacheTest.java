@@ -0,0 +1,162 @@
+package garbagemule.util.syml;
+
+import static garbagemule.util.syml.SymlDocuments.assertSameError;
+import static garbagemule.util.syml.SymlDocuments.assertSameTree;
+import static garbagemule.util.syml.SymlDocuments.parse;
+import static garbagemule.util.syml.SymlDocuments.parseError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import garbagemule.util.syml.SymlNode.Node;
+import garbagemule.util.syml.parser.LexException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Loads from the binary cache, which must give the tree the parser would
+ * have built from the text, and must never be used for a changed file.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlCacheTest {
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("cache", ".yml");
+    }
+
+    @After
+    public void deleteFile() {
+        SymlCache.of(file).delete();
+        file.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        for (int seed = 0; seed < 100; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 3 == 0);
+            if (seed % 2 == 0) docs.dupes();
+            if (seed % 4 == 0) docs.dotted();
+            String text = docs.generate(seed % 10 == 0 ? 50000 : 2000);
+            write(text);
+
+            SymlNode expected = parse(text);
+            char[] chars = text.toCharArray();
+            SymlCache.write(file, chars, chars.length, expected.node(), expected.getComment());
+
+            Node cached = SymlCache.read(file, chars, chars.length, new SymlKeys());
+            assertNotNull(cached);
+            assertSameTree(expected, SymlNode.pin(cached, expected.getComment()));
+        }
+    }
+
+    @Test
+    public void cachedLoadsMatchParser() throws IOException {
+        for (int seed = 0; seed < 50; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 2 == 0).dupes().dotted();
+            String text = docs.generate(seed % 10 == 0 ? 50000 : 2000);
+            write(text);
+
+            // The first load writes the cache, and the second one reads it
+            load();
+            assertTrue(SymlCache.of(file).isFile());
+            char[] chars = text.toCharArray();
+            assertNotNull(SymlCache.read(file, chars, chars.length, new SymlKeys()));
+
+            SymlNode expected = parse(text);
+            assertSameTree(expected, load());
+        }
+    }
+
+    @Test
+    public void ignoresCacheOfEditedFile() throws IOException {
+        write("a: 1\nb: 2\n");
+        long modified = file.lastModified();
+        load();
+
+        // Same size and modification time, so only the hash can tell
+        write("a: 3\nb: 4\n");
+        file.setLastModified(modified);
+        SymlConfig config = load();
+        assertEquals(3, config.get("a"));
+        assertEquals(4, config.get("b"));
+    }
+
+    @Test
+    public void editedFileThrowsLikeParser() throws IOException {
+        for (int seed = 0; seed < 30; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 2 == 0);
+            String text = docs.generate(2000);
+            write(text);
+            load();
+
+            String broken = docs.corrupt(text);
+            write(broken);
+            RuntimeException expected = parseError(broken);
+            try {
+                load();
+                fail("Expected " + expected);
+            } catch (RuntimeException e) {
+                assertSameError(expected, e);
+            }
+        }
+    }
+
+    @Test
+    public void splicesLikeParsedLoad() throws IOException {
+        for (int seed = 0; seed < 30; seed++) {
+            String text = new SymlDocuments(seed, seed % 2 == 0).dupes().generate(2000);
+            write(text);
+            SymlConfig parsed = new SymlConfig(file);
+            parsed.load();
+            String key = parsed.getKeys().iterator().next();
+            parsed.set(key, "changed");
+            parsed.save();
+            String expected = read();
+
+            write(text);
+            load();
+            SymlConfig cached = load();
+            cached.set(key, "changed");
+            cached.save();
+            assertEquals(expected, read());
+        }
+    }
+
+    @Test
+    public void noCacheForBrokenFile() throws IOException {
+        write("a: 1\nb:2\n");
+        try {
+            load();
+            fail("Expected a LexException");
+        } catch (LexException e) {
+            assertFalse(SymlCache.of(file).exists());
+        }
+    }
+
+    private SymlConfig load() {
+        SymlConfig config = new SymlConfig(file);
+        config.setCaching(true);
+        assertTrue(config.load());
+        return config;
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes("UTF-8"));
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+}
@@ -0,0 +1,68 @@
+package garbagemule.util.syml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Write-behind saves of files that are edited by someone else.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlConfigTest {
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("config", ".yml");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void flushKeepsEditedFile() throws IOException {
+        write("a: 1\n");
+        SymlConfig config = new SymlConfig(file);
+        config.load();
+        config.setWriteBehind(60000);
+        config.set("a", 2);
+        config.save();
+
+        write("a: 3\nb: 4\n");
+        assertTrue(config.flush());
+        assertEquals("a: 3\nb: 4\n", read());
+        assertTrue(config.isStale());
+    }
+
+    @Test
+    public void flushWritesUneditedFile() throws IOException {
+        write("a: 1\n");
+        SymlConfig config = new SymlConfig(file);
+        config.load();
+        config.setWriteBehind(60000);
+        config.set("a", 2);
+        config.save();
+
+        assertTrue(config.flush());
+        assertEquals("a: 2\n", read());
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes("UTF-8"));
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+}
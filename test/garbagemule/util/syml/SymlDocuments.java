@@ -0,0 +1,353 @@
+package garbagemule.util.syml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import garbagemule.util.syml.parser.LexException;
+import garbagemule.util.syml.parser.ParseException;
+import garbagemule.util.syml.parser.SymlLexer;
+import garbagemule.util.syml.parser.SymlParser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Random SYML documents, and the checks that the other ways of loading
+ * them end up where a plain SymlParser does.
+ * <p>The documents have nested sections, typed values, lists, comments
+ * and blank lines, and optionally keys that appear more than once, keys
+ * with periods in them, Windows line separators, and lines longer than
+ * the windows of a SymlReader. A key that appears again always holds the
+ * same kind of data, so the documents are valid for the parser as well.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlDocuments {
+    private static final int SCALAR  = 0;
+    private static final int LIST    = 1;
+    private static final int SECTION = 2;
+
+    private static final String[] WORDS = {
+        "apple", "bread", "carrot", "cookie", "melon", "potato", "stew", "fish",
+        "max health", "world_nether", "Steak", "x", "a1", "enabled"
+    };
+
+    // Values the typing has to be careful about. Not "-" or too many
+    // digits, which the parser throws NumberFormatExceptions for
+    private static final String[] ODD = {
+        "007", "1e3", "+5", "3.", ".5", "NaN", "TRUE", "false", "-0", "--",
+        "2147483648", "-2147483649", "999999999999999999", "0.1", "1.0E10",
+        "yes", "hello world", "a: b", "- not an item", "trailing  "
+    };
+
+    private final Random random;
+    private final String eol;
+    private boolean dupes, dotted, longLines;
+    private StringBuilder out;
+
+    /**
+     * @param seed the seed of the documents
+     * @param crlf whether to use Windows line separators
+     */
+    public SymlDocuments(long seed, boolean crlf) {
+        this.random = new Random(seed);
+        this.eol = (crlf ? "\r\n" : "\n");
+    }
+
+    /** Let keys appear more than once in the same section. */
+    public SymlDocuments dupes() {
+        dupes = true;
+        return this;
+    }
+
+    /** Write some keys with periods in them. */
+    public SymlDocuments dotted() {
+        dotted = true;
+        return this;
+    }
+
+    /** Write the odd line that is longer than a window of a SymlReader. */
+    public SymlDocuments longLines() {
+        longLines = true;
+        return this;
+    }
+
+    /**
+     * Generate a document of at least the given size.
+     * @param size the minimum number of characters
+     * @return the document
+     */
+    public String generate(int size) {
+        out = new StringBuilder(size + 1024);
+        Map<String, Kind> top = new HashMap<String, Kind>();
+        while (out.length() < size) {
+            section(0, 0, top, 1 + random.nextInt(8));
+        }
+        // Footer, and sometimes no line separator at the very end
+        if (random.nextBoolean()) {
+            line("# the end");
+        }
+        if (random.nextInt(4) == 0 && out.length() > eol.length()) {
+            out.setLength(out.length() - eol.length());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Break the given document on a random key line, such that it can no
+     * longer be lexed or parsed.
+     * @param text a document made by generate(int)
+     * @return the broken document
+     */
+    public String corrupt(String text) {
+        List<String> all = new ArrayList<String>();
+        for (String line : text.split("\r\n|\n", -1)) {
+            all.add(line);
+        }
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < all.size(); i++) {
+            String trimmed = all.get(i).trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#") && !trimmed.startsWith("-")) {
+                keys.add(i);
+            }
+        }
+        int k = random.nextInt(keys.size());
+        int at = keys.get(k);
+        String line = all.get(at);
+        int indent = indentOf(line);
+        String pad = spaces(indent);
+        boolean scalar = !line.trim().endsWith(":");
+
+        switch (random.nextInt(scalar ? 7 : 5)) {
+            case 1: all.set(at, pad + "k:1"); break;
+            case 2: all.set(at, pad + "a#b: 1"); break;
+            case 3: all.set(at, pad + "-item"); break;
+            case 4:
+                // All indents are even, so an odd one never matches, as
+                // long as it doesn't open a section
+                if (indent >= 2 && k > 0 && indentOf(all.get(keys.get(k - 1))) >= indent) {
+                    all.set(at, line.substring(1));
+                } else {
+                    all.set(at, pad + "broken");
+                }
+                break;
+            case 5: all.add(at + 1, pad + "    deeper: 1"); break;
+            case 6: all.add(at + 1, pad + "- item"); break;
+            default: all.set(at, pad + "broken"); break;
+        }
+        StringBuilder buffy = new StringBuilder();
+        for (Iterator<String> it = all.iterator(); it.hasNext();) {
+            buffy.append(it.next());
+            if (it.hasNext()) buffy.append(eol);
+        }
+        return buffy.toString();
+    }
+
+    private static int indentOf(String line) {
+        int n = 0;
+        while (n < line.length() && line.charAt(n) == ' ') n++;
+        return n;
+    }
+
+    /**
+     * The kind of data a key holds, and the keys of its section, so a key
+     * that appears again holds the same kind of data.
+     */
+    private static class Kind {
+        final int kind;
+        final Map<String, Kind> children = new HashMap<String, Kind>();
+
+        Kind(int kind) {
+            this.kind = kind;
+        }
+    }
+
+    private void section(int indent, int depth, Map<String, Kind> keys, int count) {
+        int step = (random.nextBoolean() ? 2 : 4);
+        for (int i = 0; i < count; i++) {
+            comments(indent);
+
+            String key = key(keys);
+            Kind kind = keys.get(key);
+            if (kind == null) {
+                // The parser nests the lines after the section of a key
+                // with periods in it deeper than their indent says, where
+                // keys that appear again could hold different kinds of data
+                boolean leaf = depth >= 3 || (dupes && key.indexOf('.') >= 0);
+                kind = new Kind(random.nextInt(leaf ? 2 : 3));
+                keys.put(key, kind);
+            }
+            String pad = spaces(indent);
+            switch (kind.kind) {
+                case SCALAR:
+                    line(pad + key + ": " + value());
+                    break;
+                case LIST:
+                    line(pad + key + ":");
+                    int items = 1 + random.nextInt(4);
+                    for (int j = 0; j < items; j++) {
+                        line(pad + "- " + word());
+                    }
+                    break;
+                default:
+                    line(pad + key + ":");
+                    section(indent + step, depth + 1, kind.children, 1 + random.nextInt(5));
+                    break;
+            }
+        }
+    }
+
+    private String key(Map<String, Kind> keys) {
+        if (dupes && !keys.isEmpty() && random.nextInt(8) == 0) {
+            List<String> used = new ArrayList<String>(keys.keySet());
+            return used.get(random.nextInt(used.size()));
+        }
+        // Dotted keys get a prefix of their own, so the nodes along the
+        // way never hold data
+        if (dotted && random.nextInt(10) == 0) {
+            return "dot" + random.nextInt(4) + "." + WORDS[random.nextInt(WORDS.length)].replace(' ', '_');
+        }
+        while (true) {
+            String key = WORDS[random.nextInt(WORDS.length)] + random.nextInt(1000);
+            if (!keys.containsKey(key)) {
+                return key;
+            }
+        }
+    }
+
+    private void comments(int indent) {
+        switch (random.nextInt(6)) {
+            case 0: line(""); break;
+            case 1: line(spaces(indent) + "# about " + word()); break;
+            case 2: line("#"); line("#" + word()); break;
+            case 3: line(spaces(random.nextInt(3)) + "  "); line("# " + word()); break;
+            default: break;
+        }
+    }
+
+    private String value() {
+        switch (random.nextInt(9)) {
+            case 0: return Integer.toString(random.nextInt());
+            // At most 18 digits, as the lazy loads leave longer ones to the parser
+            case 1: return Long.toString(random.nextLong() >> 5);
+            case 2: return Double.toString(random.nextDouble() * 100);
+            case 3: return Boolean.toString(random.nextBoolean());
+            case 4: return ODD[random.nextInt(ODD.length)];
+            case 5:
+                if (longLines && random.nextInt(20) == 0) {
+                    StringBuilder buffy = new StringBuilder();
+                    while (buffy.length() < 10000) buffy.append(word()).append(' ');
+                    return buffy.append("end").toString();
+                }
+                // Fall through
+            default: return word() + " " + word();
+        }
+    }
+
+    private String word() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String spaces(int n) {
+        StringBuilder buffy = new StringBuilder(n);
+        for (int i = 0; i < n; i++) buffy.append(' ');
+        return buffy.toString();
+    }
+
+    private void line(String line) {
+        out.append(line).append(eol);
+    }
+
+    /**
+     * Parse the text with a single SymlParser.
+     * @param text the text
+     * @return the root node
+     */
+    public static SymlNode parse(String text) {
+        SymlNode root = new SymlNode("");
+        new SymlParser().parse(new SymlLexer().lex(text), root);
+        return root;
+    }
+
+    /**
+     * Parse the text with a single SymlParser, and get what it throws.
+     * @param text the text
+     * @return the LexException or ParseException
+     */
+    public static RuntimeException parseError(String text) {
+        try {
+            parse(text);
+        } catch (LexException e) {
+            return e;
+        } catch (ParseException e) {
+            return e;
+        }
+        fail("Expected the text to be broken:\n" + text);
+        return null;
+    }
+
+    /**
+     * Check that the trees have the same keys in the same order, with the
+     * same data and comments.
+     */
+    public static void assertSameTree(SymlNode expected, SymlNode actual) {
+        assertSameTree("", expected, actual);
+    }
+
+    private static void assertSameTree(String path, SymlNode expected, SymlNode actual) {
+        assertEquals("data of " + path, expected.get(), actual.get());
+        if (expected.get() != null) {
+            assertEquals("type of " + path, expected.get().getClass(), actual.get().getClass());
+        }
+        Collection<SymlNode> ec = expected.getChildren();
+        Collection<SymlNode> ac = actual.getChildren();
+        if (ec == null) {
+            assertNull("children of " + path, ac);
+            return;
+        }
+        assertNotNull("children of " + path, ac);
+        assertEquals("keys of " + path, keys(ec), keys(ac));
+
+        Iterator<SymlNode> ai = ac.iterator();
+        for (SymlNode e : ec) {
+            SymlNode a = ai.next();
+            String child = path + "/" + e.getName();
+            assertEquals("comment of " + child, e.getComment(), a.getComment());
+            assertSameTree(child, e, a);
+        }
+    }
+
+    private static List<String> keys(Collection<SymlNode> nodes) {
+        List<String> keys = new ArrayList<String>();
+        for (SymlNode node : nodes) keys.add(node.getName());
+        return keys;
+    }
+
+    /**
+     * Check that the exceptions are of the same class, and have the same
+     * message and position.
+     */
+    public static void assertSameError(RuntimeException expected, RuntimeException actual) {
+        assertNotNull("Expected " + expected, actual);
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals("line of " + expected.getMessage(), lineOf(expected), lineOf(actual));
+        assertEquals("column of " + expected.getMessage(), columnOf(expected), columnOf(actual));
+    }
+
+    private static int lineOf(RuntimeException e) {
+        return (e instanceof LexException ? ((LexException) e).getLineNumber() : ((ParseException) e).getLineNumber());
+    }
+
+    private static int columnOf(RuntimeException e) {
+        return (e instanceof LexException ? ((LexException) e).getColumn() : ((ParseException) e).getColumn());
+    }
+}
@@ -0,0 +1,138 @@
+package garbagemule.util.syml;
+
+import static garbagemule.util.syml.SymlDocuments.assertSameError;
+import static garbagemule.util.syml.SymlDocuments.assertSameTree;
+import static garbagemule.util.syml.SymlDocuments.parse;
+import static garbagemule.util.syml.SymlDocuments.parseError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Lazy loads, whose sections are scanned when they are first read, and
+ * must end up as the tree the parser would have built, no matter in which
+ * order the sections are read.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlScannerTest {
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("lazy", ".yml");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void scansOrdinaryDocuments() {
+        for (int seed = 0; seed < 100; seed++) {
+            String text = new SymlDocuments(seed, seed % 2 == 0).generate(seed % 10 == 0 ? 50000 : 2000);
+            char[] chars = text.toCharArray();
+            assertNotNull(SymlScanner.scan(chars, chars.length, new SymlKeys()));
+        }
+    }
+
+    @Test
+    public void leavesOddDocumentsToParser() {
+        assertNull(scan("a: 1\na: 2\n"));
+        assertNull(scan("a.b: 1\n"));
+        assertNull(scan("a:\n# about b\n- b\n"));
+        assertNull(scan("a: 1\nb:2\n"));
+        assertNull(scan("a: 1\n  b: 2\n"));
+    }
+
+    private static SymlNode.Node scan(String text) {
+        return SymlScanner.scan(text.toCharArray(), text.length(), new SymlKeys());
+    }
+
+    @Test
+    public void lazyLoadsMatchParser() throws IOException {
+        for (int seed = 0; seed < 200; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 3 == 0);
+            if (seed % 4 == 0) docs.dupes();
+            if (seed % 5 == 0) docs.dotted();
+            String text = docs.generate(seed % 10 == 0 ? 50000 : 2000);
+            write(text);
+            assertSameTree(parse(text), load());
+        }
+    }
+
+    @Test
+    public void sectionsReadInAnyOrder() throws IOException {
+        for (int seed = 0; seed < 50; seed++) {
+            String text = new SymlDocuments(seed, seed % 2 == 0).generate(20000);
+            write(text);
+            SymlNode expected = parse(text);
+            SymlConfig config = load();
+
+            // Read random sections deep down first, which scans the
+            // sections along the way, and leaves their siblings alone
+            Random random = new Random(seed);
+            for (int i = 0; i < 10; i++) {
+                String path = randomPath(expected, random);
+                assertEquals(path, expected.get(path), config.get(path));
+                assertEquals(path, expected.getKeys(path), config.getKeys(path));
+            }
+            assertSameTree(expected, config);
+        }
+    }
+
+    private static String randomPath(SymlNode node, Random random) {
+        String path = null;
+        Collection<SymlNode> children = node.getChildren();
+        while (children != null && !children.isEmpty()) {
+            List<SymlNode> list = new ArrayList<SymlNode>(children);
+            SymlNode child = list.get(random.nextInt(list.size()));
+            path = (path == null ? child.getName() : path + "." + child.getName());
+            children = child.getChildren();
+        }
+        return path;
+    }
+
+    @Test
+    public void brokenFilesThrowLikeParser() throws IOException {
+        for (int seed = 0; seed < 100; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 3 == 0);
+            String broken = docs.corrupt(docs.generate(seed % 10 == 0 ? 30000 : 1000));
+            write(broken);
+            RuntimeException expected = parseError(broken);
+            try {
+                load();
+                fail("Expected " + expected);
+            } catch (RuntimeException e) {
+                assertSameError(expected, e);
+            }
+        }
+    }
+
+    private SymlConfig load() {
+        SymlConfig config = new SymlConfig(file);
+        config.setLazy(true);
+        assertTrue(config.load());
+        return config;
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes("UTF-8"));
+    }
+}
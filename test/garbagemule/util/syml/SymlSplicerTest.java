@@ -0,0 +1,134 @@
+package garbagemule.util.syml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Saves of loaded files, which copy the text of the nodes that haven't
+ * changed, and emit the rest.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlSplicerTest {
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("splice", ".yml");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void keepsListItemsBelowComment() throws IOException {
+        SymlConfig config = load("worlds:\n# Worlds where the plugin is active\n- world\n- world_nether\nenabled: true\n");
+        config.set("enabled", false);
+        config.save();
+
+        SymlConfig saved = load(read());
+        assertEquals(Arrays.asList("world", "world_nether"), saved.get("worlds"));
+        assertEquals(false, saved.get("enabled"));
+    }
+
+    @Test
+    public void keepsWindowsLineSeparators() throws IOException {
+        SymlConfig config = load("a: 1\r\nb:\r\n  c: 2\r\n");
+        config.set("b.c", 3);
+        config.set("d", 4);
+        config.getChild("d").setComment("\nabout d\n");
+        config.save();
+        assertEquals("a: 1\r\nb:\r\n  c: 3\r\n\r\n#about d\r\nd: 4\r\n", read());
+    }
+
+    @Test
+    public void keepsOldMacLineSeparators() throws IOException {
+        SymlConfig config = load("a: 1\rb:\r  c: 2\rd: 4\r");
+        config.set("b.c", 3);
+        config.getChild("d").setComment("\nabout d\n");
+        config.save();
+        assertEquals("a: 1\rb:\r  c: 3\r\r#about d\rd: 4\r", read());
+
+        SymlConfig saved = load(read());
+        assertEquals(4, saved.get("d"));
+        assertEquals("\nabout d\n", saved.getChild("d").getComment());
+    }
+
+    @Test
+    public void keepsFooterWhenLastKeyChanges() throws IOException {
+        SymlConfig config = load("a: 1\nb: 2\n\n# footer\n");
+        config.set("b", 5);
+        config.save();
+        assertEquals("a: 1\nb: 5\n\n# footer\n", read());
+    }
+
+    @Test
+    public void keepsFooterBelowNewKeys() throws IOException {
+        SymlConfig config = load("a: 1\nb:\n  c: 2\n# footer");
+        config.set("b.d", 3);
+        config.set("e", 4);
+        config.save();
+        assertEquals("a: 1\nb:\n  c: 2\n  d: 3\ne: 4\n# footer", read());
+    }
+
+    @Test
+    public void emitsDuplicateKeys() throws IOException {
+        SymlConfig config = load("a:\r# c\rb: 1\rb: 2");
+        config.set("a", 7);
+        config.save();
+        assertEquals("a: 7\r# c\rb: 2\r", read());
+    }
+
+    @Test
+    public void emitsAfterDottedSection() throws IOException {
+        SymlConfig config = load("a:\n  b.c:\n    d: 1\ne: 2\n");
+        config.set("zz", 1);
+        config.save();
+
+        SymlConfig saved = load(read());
+        assertEquals(1, saved.get("zz"));
+        assertEquals(1, saved.get("a.b.c.d"));
+        assertEquals(2, saved.get("a.e"));
+    }
+
+    @Test
+    public void emitsParentOfDottedKey() throws IOException {
+        SymlConfig config = load("apple:\n  bread:\n    k3: 1\n  c.d: 2\n  c: x\n");
+        config.set("apple.bread.nk1", 1);
+        config.save();
+
+        SymlConfig saved = load(read());
+        assertEquals(1, saved.get("apple.bread.k3"));
+        assertEquals(1, saved.get("apple.bread.nk1"));
+        assertEquals("x", saved.get("apple.c"));
+    }
+
+    private SymlConfig load(String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        SymlConfig config = new SymlConfig(file);
+        config.load();
+        return config;
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+}
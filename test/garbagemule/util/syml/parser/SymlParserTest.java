@@ -0,0 +1,119 @@
+package garbagemule.util.syml.parser;
+
+import static garbagemule.util.syml.SymlDocuments.assertSameError;
+import static garbagemule.util.syml.SymlDocuments.assertSameTree;
+import static garbagemule.util.syml.SymlDocuments.parse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import garbagemule.util.syml.SymlDocuments;
+import garbagemule.util.syml.SymlNode;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Parallel parses, which must build the same tree as a single parser, and
+ * throw the same exceptions, wherever the chunks happen to start.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlParserTest {
+    private ForkJoinPool pool;
+    private AtomicInteger threads;
+
+    @Before
+    public void createPool() {
+        // Workers are only started for chunks, so they show that the text
+        // was actually split
+        threads = new AtomicInteger();
+        pool = new ForkJoinPool(4, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                threads.incrementAndGet();
+                return ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            }
+        }, null, false);
+    }
+
+    @After
+    public void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void sameTreeAsSerialParse() {
+        for (int seed = 0; seed < 20; seed++) {
+            String text = new SymlDocuments(seed, seed % 2 == 0).longLines().generate(300000);
+            assertSameTree(parse(text), parallel(text));
+        }
+        assertTrue(threads.get() > 0);
+    }
+
+    @Test
+    public void sameTreeWithDuplicateAndDottedKeys() {
+        for (int seed = 0; seed < 20; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 2 == 1).dupes();
+            if (seed % 2 == 0) docs.dotted();
+            String text = docs.generate(300000);
+            assertSameTree(parse(text), parallel(text));
+        }
+    }
+
+    @Test
+    public void keyInMoreThanOneChunk() {
+        // Far enough apart to end up in different chunks
+        String text = new SymlDocuments(1, false).generate(300000);
+        text = "twice:\n  a: 1\n" + text + "\ntwice:\n  b: 2\n";
+        SymlNode root = parallel(text);
+        assertSameTree(parse(text), root);
+        assertEquals(1, root.get("twice.a"));
+        assertEquals(2, root.get("twice.b"));
+    }
+
+    @Test
+    public void smallTextIsNotSplit() {
+        String text = new SymlDocuments(2, false).generate(10000);
+        assertSameTree(parse(text), parallel(text));
+        assertEquals(0, threads.get());
+    }
+
+    @Test
+    public void sameErrorsAndPartialTree() {
+        for (int seed = 0; seed < 40; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 3 == 0);
+            String text = docs.corrupt(docs.generate(300000));
+
+            SymlNode expected = new SymlNode("");
+            RuntimeException error = null;
+            try {
+                new SymlParser().parse(new SymlLexer().lex(text), expected);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            SymlNode actual = new SymlNode("");
+            try {
+                SymlParser.parse(text.toCharArray(), text.length(), actual, pool);
+                fail("Expected " + error);
+            } catch (RuntimeException e) {
+                assertSameError(error, e);
+            }
+            // The chunks after the broken one are left out, like the lines
+            // a single parser never got to
+            assertSameTree(expected, actual);
+        }
+    }
+
+    private SymlNode parallel(String text) {
+        SymlNode root = new SymlNode("");
+        SymlParser.parse(text.toCharArray(), text.length(), root, pool);
+        return root;
+    }
+}
@@ -0,0 +1,249 @@
+package garbagemule.util.syml.parser;
+
+import static garbagemule.util.syml.SymlDocuments.assertSameError;
+import static garbagemule.util.syml.SymlDocuments.assertSameTree;
+import static garbagemule.util.syml.SymlDocuments.parse;
+import static garbagemule.util.syml.SymlDocuments.parseError;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import garbagemule.util.syml.SymlDocuments;
+import garbagemule.util.syml.SymlNode;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The events of a SymlReader, which must add up to the tree the parser
+ * builds, whether the document is read from a String or in windows from
+ * a Reader.
+ *
+ * @author garbagemule
+ * @version 0.1
+ */
+public class SymlReaderTest {
+    @Test
+    public void eventsOfSmallDocument() throws IOException {
+        SymlReader reader = new SymlReader("# food\na: 1\nb:\n  c: true\nd:\n- x\n");
+        List<String> events = new ArrayList<String>();
+        while (reader.hasNext()) {
+            SymlEvent event = reader.next();
+            events.add(event + (reader.getText() != null ? " " + reader.getValue() : "") + " @" + reader.getLineNumber() + "/" + reader.getDepth());
+        }
+        List<String> expected = new ArrayList<String>();
+        expected.add("COMMENT  food @1/0");
+        expected.add("KEY a @2/0");
+        expected.add("SCALAR 1 @2/0");
+        expected.add("KEY b @3/0");
+        expected.add("START_SECTION @4/1");
+        expected.add("KEY c @4/1");
+        expected.add("SCALAR true @4/1");
+        expected.add("END_SECTION @5/0");
+        expected.add("KEY d @5/0");
+        expected.add("LIST_ITEM x @6/0");
+        assertEquals(expected, events);
+    }
+
+    @Test
+    public void handlerCanStop() throws IOException {
+        final List<String> keys = new ArrayList<String>();
+        boolean done = new SymlReader("a: 1\nb: 2\nc: 3\n").read(new TreeBuilder(new SymlNode("")) {
+            @Override
+            public boolean key(String key) {
+                keys.add(key);
+                return super.key(key) && keys.size() < 2;
+            }
+        });
+        assertFalse(done);
+        assertEquals(2, keys.size());
+    }
+
+    @Test
+    public void sameTreeAsParser() throws IOException {
+        for (int seed = 0; seed < 200; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 3 == 0);
+            if (seed % 2 == 0) docs.dupes();
+            if (seed % 5 == 0) docs.dotted();
+            String text = docs.generate(seed % 10 == 0 ? 40000 : 2000);
+            check(text);
+        }
+    }
+
+    @Test
+    public void sameTreeAcrossWindows() throws IOException {
+        for (int seed = 0; seed < 40; seed++) {
+            String text = new SymlDocuments(seed, seed % 2 == 0).dupes().dotted().longLines().generate(60000);
+            check(text);
+        }
+    }
+
+    @Test
+    public void carriageReturnAtEndOfWindow() throws IOException {
+        // The first window ends between the \r and the \n of a line
+        StringBuilder buffy = new StringBuilder("a: 1\r\nb: ");
+        while (buffy.length() < 8191) buffy.append('y');
+        String text = buffy.append("\r\nc:\r\n  d: 2\r\n").toString();
+        check(text);
+    }
+
+    @Test
+    public void lineLongerThanWindow() throws IOException {
+        StringBuilder buffy = new StringBuilder("a: 1\nb: ");
+        while (buffy.length() < 20000) buffy.append('y');
+        String text = buffy.append("\nc:\n- d\n").toString();
+        check(text);
+    }
+
+    @Test
+    public void sameErrorsAsParser() throws IOException {
+        for (int seed = 0; seed < 300; seed++) {
+            SymlDocuments docs = new SymlDocuments(seed, seed % 3 == 0);
+            if (seed % 2 == 0) docs.dotted();
+            String text = docs.corrupt(docs.generate(seed % 10 == 0 ? 30000 : 1000));
+            RuntimeException expected = parseError(text);
+            assertSameError(expected, error(new SymlReader(text)));
+            assertSameError(expected, error(new SymlReader(new StringReader(text))));
+        }
+    }
+
+    @Test
+    public void listItemOutsideOfNode() throws IOException {
+        String text = "# list\n- item\n";
+        RuntimeException expected = parseError(text);
+        assertEquals(ParseException.class, expected.getClass());
+        assertEquals(2, ((ParseException) expected).getLineNumber());
+        assertSameError(expected, error(new SymlReader(text)));
+        assertSameError(expected, error(new SymlReader(new StringReader(text))));
+    }
+
+    /**
+     * Check the document both from a String and from a Reader.
+     */
+    private static void check(String text) throws IOException {
+        SymlNode expected = parse(text);
+        assertSameTree(expected, read(new SymlReader(text)));
+        assertSameTree(expected, read(new SymlReader(new StringReader(text))));
+    }
+
+    /**
+     * Pull the events into a tree. The lines that have no events are the
+     * blank lines, which the parser puts in the comments.
+     */
+    private static SymlNode read(SymlReader reader) throws IOException {
+        SymlNode root = new SymlNode("");
+        TreeBuilder builder = new TreeBuilder(root);
+        int last = 0;
+        while (reader.hasNext()) {
+            SymlEvent event = reader.next();
+            for (int line = last + 1; line < reader.getLineNumber(); line++) {
+                builder.blank();
+            }
+            last = reader.getLineNumber();
+            switch (event) {
+                case START_SECTION: builder.startSection();                 break;
+                case KEY:           builder.key(reader.getText());          break;
+                case SCALAR:        builder.scalar(reader.getValue());      break;
+                case LIST_ITEM:     builder.listItem(reader.getText());     break;
+                case COMMENT:       builder.comment(reader.getText());      break;
+                default:            builder.endSection();                   break;
+            }
+        }
+        builder.flush();
+        return root;
+    }
+
+    private static RuntimeException error(SymlReader reader) throws IOException {
+        try {
+            reader.read(new TreeBuilder(new SymlNode("")));
+        } catch (LexException e) {
+            return e;
+        } catch (ParseException e) {
+            return e;
+        }
+        fail("Expected an exception");
+        return null;
+    }
+
+    /**
+     * Builds a tree from the events the way the parser builds it from the
+     * tokens: keys that appear again are merged, lists are added to, and
+     * comments go to the key that follows them. Like
+     * the parser, the end of a section only climbs to the parent node, so
+     * the end of a section of a key with periods in it doesn't get all the
+     * way back out.
+     */
+    private static class TreeBuilder implements SymlHandler {
+        private SymlNode parent;
+        private SymlNode node;
+        private List<String> list;
+        private StringBuilder comment;
+
+        TreeBuilder(SymlNode root) {
+            parent = root;
+        }
+
+        public boolean startSection() {
+            flush();
+            parent = node;
+            return true;
+        }
+
+        public boolean key(String key) {
+            flush();
+            node = parent.createChild(key);
+            if (comment != null) {
+                node.setComment(comment.toString());
+                comment = null;
+            }
+            return true;
+        }
+
+        public boolean scalar(Object value) {
+            node.set(value);
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean listItem(String item) {
+            if (list == null) {
+                Object data = node.get();
+                list = (data instanceof List<?> ? new ArrayList<String>((List<String>) data) : new ArrayList<String>());
+            }
+            list.add(item);
+            return true;
+        }
+
+        public boolean comment(String text) {
+            if (comment == null) {
+                comment = new StringBuilder();
+            }
+            comment.append(text.isEmpty() ? " " : text).append('\n');
+            return true;
+        }
+
+        void blank() {
+            if (comment == null) {
+                comment = new StringBuilder();
+            }
+            comment.append('\n');
+        }
+
+        public boolean endSection() {
+            flush();
+            parent = parent.getParent();
+            return true;
+        }
+
+        void flush() {
+            if (list != null) {
+                node.set(list);
+                list = null;
+            }
+        }
+    }
+}